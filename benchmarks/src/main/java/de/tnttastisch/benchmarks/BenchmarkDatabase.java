@@ -0,0 +1,63 @@
+package de.tnttastisch.benchmarks;
+
+import de.tnttastisch.SQLFactory;
+import de.tnttastisch.helpers.ConnectionAuthenticator;
+import de.tnttastisch.helpers.DatabaseType;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Creates the embedded SQLite databases the benchmarks run against.
+ */
+final class BenchmarkDatabase {
+
+    private BenchmarkDatabase() {
+    }
+
+    static File createFile() throws IOException {
+        File file = File.createTempFile("sqlapi-benchmark", ".db");
+        file.deleteOnExit();
+        return file;
+    }
+
+    static ConnectionAuthenticator connect(File file, int maximumPoolSize) {
+        SQLFactory factory = new SQLFactory(LoggerFactory.getLogger("SQLAPI-Benchmark"), DatabaseType.SQLITE);
+        return factory.createDatabaseConnection(maximumPoolSize, maximumPoolSize, file.getAbsolutePath());
+    }
+
+    static Connection open(File file) throws SQLException {
+        return DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+    }
+
+    /**
+     * Creates the table {@code name (id INTEGER PRIMARY KEY, name TEXT, amount REAL)} holding the given number of rows.
+     */
+    static void fill(Connection connection, String table, int rows) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("CREATE TABLE " + table + " (id INTEGER PRIMARY KEY, name TEXT, amount REAL)")) {
+            statement.executeUpdate();
+        }
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO " + table + " (id, name, amount) VALUES (?, ?, ?)")) {
+            for (int i = 0; i < rows; i++) {
+                statement.setInt(1, i);
+                statement.setString(2, "name-" + i);
+                statement.setDouble(3, i * 0.5D);
+                statement.addBatch();
+                if (i % 10_000 == 9_999) {
+                    statement.executeBatch();
+                }
+            }
+            statement.executeBatch();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+}
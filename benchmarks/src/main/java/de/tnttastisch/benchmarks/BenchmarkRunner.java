@@ -0,0 +1,54 @@
+package de.tnttastisch.benchmarks;
+
+import de.tnttastisch.helpers.SetArgsBenchmark;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Runs all benchmarks and writes one JSON result file per run into the output directory,
+ * {@code target/jmh} unless another directory is passed as first argument. The command benchmarks
+ * run once per concurrency level. Further arguments are regular JMH options, for example
+ * {@code -p rows=10000} to only migrate the smallest table.
+ */
+public final class BenchmarkRunner {
+
+    private static final int[] THREADS = {1, 4, 16};
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        File output = new File(args.length > 0 && !args[0].startsWith("-") ? args[0] : "target/jmh");
+        if (!output.isDirectory() && !output.mkdirs()) {
+            throw new IllegalStateException("Could not create " + output);
+        }
+        String[] jmhArgs = args.length > 0 && !args[0].startsWith("-") ? Arrays.copyOfRange(args, 1, args.length) : args;
+        CommandLineOptions commandLine = new CommandLineOptions(jmhArgs);
+
+        for (int threads : THREADS) {
+            run(options(commandLine, DatabaseCommandBenchmark.class, new File(output, "command-" + threads + "-threads.json")).threads(threads));
+        }
+        run(options(commandLine, SetArgsBenchmark.class, new File(output, "set-args.json")));
+        run(options(commandLine, MigrationBenchmark.class, new File(output, "migration.json")));
+    }
+
+    private static ChainedOptionsBuilder options(CommandLineOptions commandLine, Class<?> benchmark, File result) {
+        return new OptionsBuilder()
+                .parent(commandLine)
+                .include("^" + benchmark.getName().replace(".", "\\.") + "\\.")
+                .resultFormat(ResultFormatType.JSON)
+                .result(result.getPath());
+    }
+
+    private static void run(ChainedOptionsBuilder options) throws RunnerException {
+        new Runner(options.build()).run();
+    }
+}
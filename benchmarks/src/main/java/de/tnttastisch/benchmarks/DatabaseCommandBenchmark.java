@@ -0,0 +1,62 @@
+package de.tnttastisch.benchmarks;
+
+import de.tnttastisch.helpers.ConnectionAuthenticator;
+import de.tnttastisch.helpers.DatabaseCommand;
+import de.tnttastisch.helpers.Row;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-row query and update round trips through {@link DatabaseCommand}.
+ * Run with different thread counts to measure the scaling over the connection pool,
+ * {@link BenchmarkRunner} runs it with 1, 4 and 16 threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseCommandBenchmark {
+
+    private static final int ROWS = 10_000;
+
+    @Param({"8"})
+    public int maximumPoolSize;
+
+    private File file;
+    private ConnectionAuthenticator authenticator;
+    private DatabaseCommand command;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        this.file = BenchmarkDatabase.createFile();
+        try (Connection connection = BenchmarkDatabase.open(this.file)) {
+            BenchmarkDatabase.fill(connection, "accounts", ROWS);
+        }
+        this.authenticator = BenchmarkDatabase.connect(this.file, this.maximumPoolSize);
+        this.command = this.authenticator.getCommand();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        this.authenticator.shutdown();
+        this.file.delete();
+    }
+
+    @Benchmark
+    public List<Row> query() {
+        return this.command.queryRows("SELECT id, name, amount FROM accounts WHERE id = ?", ThreadLocalRandom.current().nextInt(ROWS)).join();
+    }
+
+    @Benchmark
+    public Void update() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return this.command.update("UPDATE accounts SET amount = ? WHERE id = ?", random.nextDouble(), random.nextInt(ROWS)).join();
+    }
+}
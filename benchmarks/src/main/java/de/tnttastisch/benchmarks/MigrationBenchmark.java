@@ -0,0 +1,57 @@
+package de.tnttastisch.benchmarks;
+
+import de.tnttastisch.migration.Migration;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.sql.Connection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Speed of {@link Migration#migrate(Connection)} for tables of different sizes. {@link #migrate()} measures
+ * copying the table, {@link #migrateInPlace()} the same change applied with {@code ALTER TABLE}.
+ * Every invocation migrates a freshly filled table.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class MigrationBenchmark {
+
+    private static final String OLD_TABLE = "id INTEGER PRIMARY KEY, name TEXT, amount REAL";
+    private static final String NEW_TABLE = "id INTEGER PRIMARY KEY, name TEXT, amount REAL, created BIGINT DEFAULT 0";
+
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    private File file;
+    private Connection connection;
+
+    @Setup(Level.Invocation)
+    public void setup() throws Exception {
+        this.file = BenchmarkDatabase.createFile();
+        this.connection = BenchmarkDatabase.open(this.file);
+        BenchmarkDatabase.fill(this.connection, "accounts", this.rows);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() throws Exception {
+        this.connection.close();
+        this.file.delete();
+    }
+
+    @Benchmark
+    public void migrate() throws Exception {
+        Migration migration = new Migration("accounts", OLD_TABLE, NEW_TABLE);
+        // The added column could be applied in place, which would skip the copy measured here
+        migration.setInPlace(false);
+        migration.migrate(this.connection);
+    }
+
+    @Benchmark
+    public void migrateInPlace() throws Exception {
+        new Migration("accounts", OLD_TABLE, NEW_TABLE).migrate(this.connection);
+    }
+}
@@ -0,0 +1,115 @@
+package de.tnttastisch.helpers;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of binding a single argument of every supported type with {@link DatabaseCommand#setArgs(Object[], PreparedStatement)}
+ * compared to the typed {@link Parameters} of a statement handle.
+ * Lives in the helpers package because setArgs is package-private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SetArgsBenchmark {
+
+    @Param({"STRING", "INTEGER", "LONG", "DOUBLE", "FLOAT", "BOOLEAN", "BYTE", "DATE", "TIME", "TIMESTAMP", "BYTES", "OBJECT"})
+    public String type;
+
+    private Connection connection;
+    private PreparedStatement statement;
+    private Object[] arguments;
+    private Parameters parameters;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        this.connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        this.statement = this.connection.prepareStatement("SELECT ?");
+        this.arguments = new Object[]{value(this.type)};
+        this.parameters = parameters(this.type);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        this.statement.close();
+        this.connection.close();
+    }
+
+    @Benchmark
+    public PreparedStatement setArgs() throws SQLException {
+        DatabaseCommand.setArgs(this.arguments, this.statement);
+        return this.statement;
+    }
+
+    @Benchmark
+    public PreparedStatement bindParameters() throws SQLException {
+        this.parameters.bind(this.statement);
+        return this.statement;
+    }
+
+    private static Parameters parameters(String type) {
+        switch (type) {
+            case "INTEGER":
+                return new Parameters(new ParameterType[]{ParameterType.INT}).setInt(1, 123_456);
+            case "LONG":
+                return new Parameters(new ParameterType[]{ParameterType.LONG}).setLong(1, 123_456_789_012L);
+            case "DOUBLE":
+                return new Parameters(new ParameterType[]{ParameterType.DOUBLE}).setDouble(1, 1234.5678D);
+            case "FLOAT":
+                return new Parameters(new ParameterType[]{ParameterType.FLOAT}).setDouble(1, 1234.5F);
+            case "BOOLEAN":
+                return new Parameters(new ParameterType[]{ParameterType.BOOLEAN}).setBoolean(1, true);
+            case "BYTE":
+                return new Parameters(new ParameterType[]{ParameterType.BYTE}).setInt(1, 42);
+            case "STRING":
+                return new Parameters(new ParameterType[]{ParameterType.STRING}).setString(1, "benchmark");
+            case "DATE":
+                return new Parameters(new ParameterType[]{ParameterType.DATE}).setDate(1, Date.valueOf("2024-01-31"));
+            case "TIME":
+                return new Parameters(new ParameterType[]{ParameterType.TIME}).setTime(1, Time.valueOf("12:34:56"));
+            case "TIMESTAMP":
+                return new Parameters(new ParameterType[]{ParameterType.TIMESTAMP}).setTimestamp(1, Timestamp.valueOf("2024-01-31 12:34:56.789"));
+            case "BYTES":
+                return new Parameters(new ParameterType[]{ParameterType.BYTES}).setBytes(1, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+            default:
+                return new Parameters(new ParameterType[]{ParameterType.OBJECT}).setObject(1, value(type));
+        }
+    }
+
+    private static Object value(String type) {
+        switch (type) {
+            case "STRING":
+                return "benchmark";
+            case "INTEGER":
+                return 123_456;
+            case "LONG":
+                return 123_456_789_012L;
+            case "DOUBLE":
+                return 1234.5678D;
+            case "FLOAT":
+                return 1234.5F;
+            case "BOOLEAN":
+                return Boolean.TRUE;
+            case "BYTE":
+                return (byte) 42;
+            case "DATE":
+                return Date.valueOf("2024-01-31");
+            case "TIME":
+                return Time.valueOf("12:34:56");
+            case "TIMESTAMP":
+                return Timestamp.valueOf("2024-01-31 12:34:56.789");
+            case "BYTES":
+                return new byte[]{1, 2, 3, 4, 5, 6, 7, 8};
+            case "OBJECT":
+                return new BigDecimal("1234.5678");
+            default:
+                throw new IllegalArgumentException("Unknown type " + type);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package de.tnttastisch;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The IExecutorProvider interface provides a method for creating the executor running database operations.
+ * @since = 2.1-RELEASE
+ */
+public interface IExecutorProvider {
+
+    /**
+     * Creates the executor running the asynchronous database operations.
+     * @param maximumPoolSize The maximum number of connections of the pool the executor works on.
+     * @return The ExecutorService instance running the database operations.
+     */
+    ExecutorService createExecutor(int maximumPoolSize);
+}
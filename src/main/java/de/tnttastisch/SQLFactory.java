@@ -3,10 +3,18 @@ package de.tnttastisch;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 import com.zaxxer.hikari.pool.HikariPool;
+import de.tnttastisch.helpers.ConcurrencyLimiter;
 import de.tnttastisch.helpers.ConnectionAuthenticator;
 import de.tnttastisch.helpers.DatabaseCommand;
+import de.tnttastisch.helpers.DatabaseExecutors;
 import de.tnttastisch.helpers.DatabaseType;
+import de.tnttastisch.helpers.LimitAlgorithm;
+import de.tnttastisch.helpers.QueryDiagnostics;
+import de.tnttastisch.helpers.ReplicaSelection;
+import de.tnttastisch.metrics.IMetricsListener;
+import de.tnttastisch.metrics.ListenerMetricsTrackerFactory;
 import de.tnttastisch.migration.Migration;
+import de.tnttastisch.migration.MigrationScheduler;
 import org.slf4j.Logger;
 
 import java.io.File;
@@ -14,6 +22,10 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * @since = 2.0-RELEASE
@@ -21,9 +33,32 @@ import java.util.ArrayList;
 public class SQLFactory {
 
     private Logger logger;
+    private DatabaseType databaseType;
     private ArrayList<Migration> migrations;
     private ConnectionAuthenticator connectionAuthenticator;
     private String migrationPrefix = "[Migration] ";
+    private boolean rewriteBatchedStatements;
+    private boolean allowLoadLocalInfile;
+    private int statementCacheSize;
+    private boolean serverPreparedStatements;
+    private IExecutorProvider executorProvider;
+    private int executorQueueCapacity = DatabaseExecutors.DEFAULT_QUEUE_CAPACITY;
+    private RejectedExecutionHandler rejectionPolicy = new ThreadPoolExecutor.CallerRunsPolicy();
+    private boolean virtualThreads;
+    private IMetricsListener metricsListener;
+    private QueryDiagnostics diagnostics;
+    private boolean sqliteHighThroughput;
+    private long sqliteMmapSize;
+    private int sqliteCacheSize;
+    private final List<String[]> replicas = new ArrayList<>();
+    private final List<Integer> replicaWeights = new ArrayList<>();
+    private ReplicaSelection replicaSelection = ReplicaSelection.LEAST_OUTSTANDING;
+    private int replicaFailureThreshold = 3;
+    private long replicaCooldown = 30000;
+    private boolean lazyInitialization;
+    private int warmUpConnections = -1;
+    private LimitAlgorithm limitAlgorithm;
+    private boolean limitResizesPool;
 
     /**
      * Initializes an instance of SQLFactory with the provided logger.
@@ -34,6 +69,34 @@ public class SQLFactory {
         this.migrations = new ArrayList<>();
     }
 
+    /**
+     * Initializes an instance of SQLFactory for the given database type, independent of the global
+     * {@link DatabaseType#setType(DatabaseType)}, so factories of different types can be used side by side.
+     * @param logger       The logger to be used for logging events and messages.
+     * @param databaseType The type of the database this factory connects to.
+     */
+    public SQLFactory(Logger logger, DatabaseType databaseType) {
+        this(logger);
+        this.databaseType = databaseType;
+    }
+
+    /**
+     * Gets the type of the database this factory connects to.
+     * @return The type of this factory, or the global type if none was set.
+     */
+    @SuppressWarnings("deprecation")
+    public DatabaseType getDatabaseType() {
+        return this.databaseType != null ? this.databaseType : DatabaseType.getType();
+    }
+
+    /**
+     * Sets the type of the database this factory connects to. Takes effect for connections created afterwards.
+     * @param databaseType The database type, or null to use the global type.
+     */
+    public void setDatabaseType(DatabaseType databaseType) {
+        this.databaseType = databaseType;
+    }
+
     private Logger getLogger() {
         return logger;
     }
@@ -58,8 +121,51 @@ public class SQLFactory {
         return connect(8, 1, arguments);
     }
 
+    /**
+     * Creates a database connection without blocking the calling thread. The pools are created on a bootstrap
+     * thread, then the warm-up connections of the primary and of every replica are opened in parallel, see
+     * {@link ConnectionAuthenticator#warmUp(int)}. With {@link #setLazyInitialization(boolean)} enabled, no connection
+     * is opened before the warm-up.
+     * @param maximumPoolSize The maximum number of connections in the connection pool.
+     * @param minIdle         The minimum number of idle connections in the connection pool.
+     * @param arguments       Additional arguments required for establishing the database connection.
+     * @return A CompletableFuture completing once the connection is ready, containing the ConnectionAuthenticator,
+     * or null if the database could not be reached.
+     */
+    public CompletableFuture<ConnectionAuthenticator> createDatabaseConnectionAsync(int maximumPoolSize, int minIdle, String... arguments) {
+        int connections = this.warmUpConnections < 0 ? minIdle : this.warmUpConnections;
+        return CompletableFuture.supplyAsync(() -> connect(maximumPoolSize, minIdle, arguments), runnable -> {
+            Thread thread = new Thread(runnable, "SQLAPI-Bootstrap");
+            thread.setDaemon(true);
+            thread.start();
+        }).thenCompose(connection -> {
+            if (connection == null || connection.isShutdown()) return CompletableFuture.completedFuture(null);
+            return connection.warmUp(connections).handle((ignored, error) -> {
+                if (error == null) return connection;
+                getLogger().error("Connection test failed", error);
+                try {
+                    connection.shutdown();
+                } catch (SQLException | InterruptedException e) {
+                    getLogger().error("An error occurred while shutting down the connection: ", e);
+                }
+                return null;
+            });
+        });
+    }
+
+    /**
+     * Creates a database connection without blocking the calling thread.
+     * @param arguments       Additional arguments required for establishing the database connection.
+     * @return A CompletableFuture completing once the connection is ready, containing the ConnectionAuthenticator,
+     * or null if the database could not be reached.
+     */
+    public CompletableFuture<ConnectionAuthenticator> createDatabaseConnectionAsync(String... arguments) {
+        return createDatabaseConnectionAsync(8, 1, arguments);
+    }
+
     /**
      * Retrieves the active database connection if available.
+     * A factory holds a single connection, which has to be shut down before a new one can be created.
      * @return The active database connection if available; otherwise, null.
      */
     public ConnectionAuthenticator getDatabaseConnection() {
@@ -93,61 +199,409 @@ public class SQLFactory {
             try {
                 migration.migrate(connection);
             } catch (SQLException e) {
-                getLogger().error(String.format(migrationPrefix + "An error occurred while trying to migrate table %s: ", migration.getTable()), e);
+                getLogger().error(String.format(migrationPrefix + "An error occurred while trying to migrate table %s: ", migration.getTableName()), e);
             }
         });
     }
 
+    /**
+     * Executes all stored migrations on connections of the active database connection, running independent
+     * tables in parallel. Tables which are recorded as up to date in the schema version table are skipped.
+     * SQLite allows a single writer only, so its migrations always run one after another.
+     * @param parallelism The maximum number of migrations running at the same time, at most the maximum pool size.
+     * @return A CompletableFuture containing the number of failed and skipped migrations.
+     */
+    public CompletableFuture<Integer> migrate(int parallelism) {
+        if (migrations.isEmpty()) {
+            getLogger().warn(migrationPrefix + "There is nothing to Migrate!");
+            return CompletableFuture.completedFuture(0);
+        }
+        if (this.connectionAuthenticator == null || this.connectionAuthenticator.isShutdown()) {
+            getLogger().error(migrationPrefix + "There is no active database connection to migrate");
+            return CompletableFuture.completedFuture(this.migrations.size());
+        }
+        int threads = getDatabaseType() == DatabaseType.SQLITE ? 1 : parallelism;
+        return new MigrationScheduler(getLogger(), this.connectionAuthenticator.getPool(), threads).run(this.migrations);
+    }
+
+    /**
+     * Enables the MySQL driver side rewriting of JDBC batches into multi-row statements.
+     * Should be enabled when {@link DatabaseCommand#batch(String, java.util.Collection)} is used.
+     * Takes effect for connections created afterwards.
+     * @param rewriteBatchedStatements Whether batches should be rewritten by the driver.
+     */
+    public void setRewriteBatchedStatements(boolean rewriteBatchedStatements) {
+        this.rewriteBatchedStatements = rewriteBatchedStatements;
+    }
+
+    /**
+     * Allows the MySQL driver to send local files with {@code LOAD DATA LOCAL INFILE}, as used by
+     * {@link de.tnttastisch.transfer.BulkTransfer#setLocalInfile(boolean)}. The server has to allow it as well.
+     * Takes effect for connections created afterwards.
+     * @param allowLoadLocalInfile Whether local files may be loaded.
+     */
+    public void setAllowLoadLocalInfile(boolean allowLoadLocalInfile) {
+        this.allowLoadLocalInfile = allowLoadLocalInfile;
+    }
+
+    /**
+     * Sets the number of prepared statements kept open per pooled connection and, for MySQL,
+     * enables the driver side statement cache with the same size.
+     * Takes effect for connections created afterwards.
+     * @param statementCacheSize The maximum number of cached statements per connection, 0 disables caching.
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        if (statementCacheSize < 0) throw new IllegalArgumentException("The statement cache size must not be negative");
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Enables MySQL server side prepared statements, so cached statements are parsed only once by the server.
+     * Takes effect for connections created afterwards.
+     * @param serverPreparedStatements Whether the MySQL driver should use server side prepared statements.
+     */
+    public void setServerPreparedStatements(boolean serverPreparedStatements) {
+        this.serverPreparedStatements = serverPreparedStatements;
+    }
+
+    /**
+     * Replaces the default executor of new connections. The provider receives the maximum pool size.
+     * @param executorProvider The executor provider, or null for the default bounded executor.
+     */
+    public void setExecutorProvider(IExecutorProvider executorProvider) {
+        this.executorProvider = executorProvider;
+    }
+
+    /**
+     * Sets how many operations may wait for a worker of the default bounded executor.
+     * Takes effect for connections created afterwards.
+     * @param executorQueueCapacity The queue capacity, must be positive.
+     */
+    public void setExecutorQueueCapacity(int executorQueueCapacity) {
+        if (executorQueueCapacity <= 0) throw new IllegalArgumentException("The executor queue capacity must be positive");
+        this.executorQueueCapacity = executorQueueCapacity;
+    }
+
+    /**
+     * Sets what happens to operations submitted while the queue of the default bounded executor is full.
+     * By default they run on the submitting thread ({@link ThreadPoolExecutor.CallerRunsPolicy}), which throttles
+     * producers but blocks the caller of the asynchronous methods for the duration of the operation. Callers that
+     * must never block, such as event loops, should use {@link ThreadPoolExecutor.AbortPolicy}: rejected operations
+     * then complete their future exceptionally with a {@link java.util.concurrent.RejectedExecutionException}.
+     * The policy applies to the writer of the SQLite high-throughput mode as well.
+     * Takes effect for connections created afterwards.
+     * @param rejectionPolicy The rejection policy.
+     */
+    public void setRejectionPolicy(RejectedExecutionHandler rejectionPolicy) {
+        this.rejectionPolicy = rejectionPolicy;
+    }
+
+    /**
+     * Runs the operations of new connections on virtual threads instead of the default bounded executor.
+     * Falls back to the bounded executor on runtimes older than Java 21.
+     * @param virtualThreads Whether virtual threads should be used.
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Sets the listener receiving the statement timings of new connections and the metrics of their pools,
+     * for example an {@link de.tnttastisch.metrics.InMemoryMetrics} instance.
+     * Takes effect for connections created afterwards.
+     * @param metricsListener The metrics listener, or null to disable metrics.
+     */
+    public void setMetricsListener(IMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+    }
+
+    /**
+     * Sets the diagnostics logging slow statements with their plans and repeated statements of new connections.
+     * Takes effect for connections created afterwards.
+     * @param diagnostics The query diagnostics, or null to disable diagnostics.
+     */
+    public void setDiagnostics(QueryDiagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    private IExecutorProvider getExecutorProvider() {
+        if (this.executorProvider != null) return this.executorProvider;
+        if (this.virtualThreads) {
+            if (DatabaseExecutors.isVirtualSupported()) return maximumPoolSize -> DatabaseExecutors.virtual();
+            getLogger().warn("Virtual threads require Java 21 or newer, falling back to a bounded executor");
+        }
+        int queueCapacity = this.executorQueueCapacity;
+        RejectedExecutionHandler policy = this.rejectionPolicy;
+        return maximumPoolSize -> DatabaseExecutors.bounded(maximumPoolSize, queueCapacity, policy);
+    }
+
+    /**
+     * Enables the SQLite high-throughput mode for connections created afterwards. The database is switched to
+     * WAL journaling with {@code synchronous=NORMAL}; all writes go through a single writer connection and
+     * are serialized by a dedicated worker, while queries run on a separate pool of read-only connections.
+     * @param mmapSize  The number of bytes of the database file SQLite may memory-map, 0 disables memory-mapping.
+     * @param cacheSize The page cache size per connection, in pages if positive or in KiB if negative.
+     */
+    public void enableSqliteHighThroughput(long mmapSize, int cacheSize) {
+        if (mmapSize < 0) throw new IllegalArgumentException("The mmap size must not be negative");
+        this.sqliteHighThroughput = true;
+        this.sqliteMmapSize = mmapSize;
+        this.sqliteCacheSize = cacheSize;
+    }
+
+    /**
+     * Adds a read replica for connections created afterwards. Queries are spread across all replicas,
+     * writes and queries run through {@link DatabaseCommand#onPrimary()} go to the server passed to
+     * {@link #createDatabaseConnection(int, int, String...)}. Replica pools use the same pool sizes as the primary.
+     * @param weight    The share of queries the replica receives relative to the other replicas, must be positive.
+     * @param arguments The connection arguments of the replica, in the same form as for the primary.
+     */
+    public void addReplica(int weight, String... arguments) {
+        if (weight <= 0) throw new IllegalArgumentException("The replica weight must be positive");
+        this.replicas.add(arguments);
+        this.replicaWeights.add(weight);
+    }
+
+    /**
+     * Sets how a replica is picked for a query. Takes effect for connections created afterwards.
+     * @param replicaSelection The replica selection, least outstanding requests by default.
+     */
+    public void setReplicaSelection(ReplicaSelection replicaSelection) {
+        this.replicaSelection = replicaSelection;
+    }
+
+    /**
+     * Sets after how many consecutive connection failures a replica is ejected and for how long.
+     * Takes effect for connections created afterwards.
+     * @param failureThreshold The number of consecutive failures, 3 by default.
+     * @param cooldown         The time in milliseconds an ejected replica receives no queries, 30 seconds by default.
+     */
+    public void setReplicaEjection(int failureThreshold, long cooldown) {
+        if (failureThreshold <= 0) throw new IllegalArgumentException("The failure threshold must be positive");
+        if (cooldown < 0) throw new IllegalArgumentException("The cooldown must not be negative");
+        this.replicaFailureThreshold = failureThreshold;
+        this.replicaCooldown = cooldown;
+    }
+
+    /**
+     * Creates the pools of new connections without opening a connection, so creating a connection neither waits
+     * for the database nor fails if it is unreachable. The pools open their minimum idle connections in the
+     * background, {@link ConnectionAuthenticator#warmUp(int)} opens them right away and runs the connection test.
+     * @param lazyInitialization Whether pools should be initialized lazily.
+     */
+    public void setLazyInitialization(boolean lazyInitialization) {
+        this.lazyInitialization = lazyInitialization;
+    }
+
+    /**
+     * Sets how many connections per pool {@link #createDatabaseConnectionAsync(int, int, String...)} opens before
+     * the connection is reported as ready.
+     * @param warmUpConnections The number of connections per pool, or -1 for the minimum number of idle connections.
+     */
+    public void setWarmUpConnections(int warmUpConnections) {
+        if (warmUpConnections < -1) throw new IllegalArgumentException("The number of warm-up connections must not be less than -1");
+        this.warmUpConnections = warmUpConnections;
+    }
+
+    /**
+     * Puts an adaptive {@link ConcurrencyLimiter} in front of the command of connections created afterwards.
+     * The maximum pool size passed to {@link #createDatabaseConnection(int, int, String...)} becomes the upper
+     * bound of the limit, which starts at half of it and follows the observed statement latency.
+     * @param algorithm  How the limit is adjusted, or null to disable the limiter.
+     * @param resizePool Whether the maximum size of the pool should follow the limit. Only applies to a
+     *                   single pool, not to connections with replicas or in the SQLite high-throughput mode.
+     */
+    public void enableAdaptiveConcurrency(LimitAlgorithm algorithm, boolean resizePool) {
+        this.limitAlgorithm = algorithm;
+        this.limitResizesPool = resizePool;
+    }
+
+    private ConcurrencyLimiter createLimiter(ConnectionAuthenticator connection) {
+        HikariPool pool = connection.getPool();
+        int maximum = pool.config.getMaximumPoolSize();
+        boolean singlePool = connection.getReplicaPools().isEmpty();
+        for (HikariPool replicaPool : connection.getReplicaPools()) {
+            maximum += replicaPool.config.getMaximumPoolSize();
+        }
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(this.limitAlgorithm, (maximum + 1) / 2, 1, maximum);
+        if (this.limitResizesPool) {
+            if (singlePool) {
+                limiter.resizePool(pool);
+            } else {
+                getLogger().warn("The pool size only follows the concurrency limit for connections with a single pool");
+            }
+        }
+        return limiter;
+    }
+
+    private List<IPoolProvider> createReplicaProviders(int maximumPoolSize, int minIdle) {
+        List<IPoolProvider> providers = new ArrayList<>(this.replicas.size());
+        for (String[] arguments : this.replicas) {
+            switch (getDatabaseType()) {
+                case MYSQL:
+                    providers.add(() -> {
+                        HikariConfig conf = createMysqlConfig(maximumPoolSize, minIdle, arguments);
+                        conf.setReadOnly(true);
+                        conf.setInitializationFailTimeout(-1);
+                        return new HikariDataSource(conf);
+                    });
+                    break;
+                case SQLITE:
+                    providers.add(() -> {
+                        HikariConfig conf = createSqliteConfig(sqliteFile(arguments), maximumPoolSize, minIdle, true);
+                        conf.setInitializationFailTimeout(-1);
+                        return new HikariDataSource(conf);
+                    });
+                    break;
+                default:
+                    break;
+            }
+        }
+        return providers;
+    }
+
+    private int[] getReplicaWeights() {
+        int[] weights = new int[this.replicaWeights.size()];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = this.replicaWeights.get(i);
+        }
+        return weights;
+    }
+
+    private HikariConfig createConfig(int maximumPoolSize, int minIdle) {
+        HikariConfig conf = new HikariConfig();
+        conf.setConnectionTimeout(7500);
+        if (this.metricsListener != null) {
+            conf.setMetricsTrackerFactory(new ListenerMetricsTrackerFactory(this.metricsListener));
+        }
+        conf.setMaximumPoolSize(maximumPoolSize);
+        conf.setMinimumIdle(minIdle);
+        if (this.lazyInitialization) {
+            conf.setInitializationFailTimeout(-1);
+        }
+        return conf;
+    }
+
+    private HikariConfig createMysqlConfig(int maximumPoolSize, int minIdle, String... arguments) {
+        HikariConfig conf = createConfig(maximumPoolSize, minIdle);
+        String options = arguments.length >= 6 && arguments[5] != null ? arguments[5] : "";
+        if (this.rewriteBatchedStatements) {
+            options = appendOption(options, "rewriteBatchedStatements=true");
+        }
+        if (this.allowLoadLocalInfile) {
+            options = appendOption(options, "allowLoadLocalInfile=true");
+        }
+        String jdbcUrl = String.format("jdbc:mysql://%s:%s/%s", arguments[0], (Integer.parseInt(arguments[1]) == 0 ? "3306" : arguments[1]), arguments[2]);
+        conf.setJdbcUrl(options.isEmpty() ? jdbcUrl : jdbcUrl + "?" + options);
+        if (this.statementCacheSize > 0) {
+            conf.addDataSourceProperty("cachePrepStmts", "true");
+            conf.addDataSourceProperty("prepStmtCacheSize", String.valueOf(this.statementCacheSize));
+            conf.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        }
+        if (this.serverPreparedStatements) {
+            conf.addDataSourceProperty("useServerPrepStmts", "true");
+        }
+        conf.setUsername(arguments[3]);
+        conf.setPassword(arguments[4]);
+        return conf;
+    }
+
+    private File sqliteFile(String... arguments) {
+        if (arguments.length >= 2 && arguments[1] != null) {
+            return new File(arguments[0], arguments[1]);
+        }
+        return new File(arguments[0]);
+    }
+
+    private HikariConfig createSqliteConfig(File confDb, int maximumPoolSize, int minIdle, boolean readOnly) {
+        HikariConfig conf = createConfig(maximumPoolSize, minIdle);
+        conf.setJdbcUrl("jdbc:sqlite://" + confDb.getAbsolutePath());
+        if (readOnly) {
+            conf.setReadOnly(true);
+            conf.addDataSourceProperty("open_mode", "1");
+        }
+        if (this.sqliteHighThroughput) {
+            conf.addDataSourceProperty("busy_timeout", "5000");
+            conf.addDataSourceProperty("mmap_size", String.valueOf(this.sqliteMmapSize));
+            conf.addDataSourceProperty("cache_size", String.valueOf(this.sqliteCacheSize));
+            if (readOnly) {
+                conf.setPoolName("SQLite-Reader");
+            } else {
+                conf.setPoolName("SQLite-Writer");
+                conf.addDataSourceProperty("journal_mode", "WAL");
+                conf.addDataSourceProperty("synchronous", "NORMAL");
+            }
+        }
+        return conf;
+    }
+
+    private String appendOption(String options, String option) {
+        return options.isEmpty() ? option : options + "&" + option;
+    }
+
     private ConnectionAuthenticator connect(int maximumPoolSize, int minIdle, String... arguments) {
+        if (this.connectionAuthenticator != null && !this.connectionAuthenticator.isShutdown()) {
+            getLogger().warn("This factory is already connected, shut down the active connection before creating a new one");
+            return this.connectionAuthenticator;
+        }
+        this.connectionAuthenticator = null;
+        if (getDatabaseType() == null) {
+            getLogger().error("There was no database type set for this factory");
+            return null;
+        }
         try {
-            switch (DatabaseType.getType()) {
+            switch (getDatabaseType()) {
                 case MYSQL: {
-                    this.connectionAuthenticator = new ConnectionAuthenticator(getLogger(), () -> {
-                        HikariConfig conf = new HikariConfig();
-                        conf.setConnectionTimeout(7500);
-                        conf.setMaximumPoolSize(maximumPoolSize);
-                        conf.setMinimumIdle(minIdle);
-                        if (arguments.length >= 6 && arguments[5] != null) {
-                            conf.setJdbcUrl(String.format("jdbc:mysql://%s:%s/%s?%s", arguments[0], (Integer.parseInt(arguments[1]) == 0 ? "3306" : arguments[1]), arguments[2], arguments[5]));
-                        } else {
-                            conf.setJdbcUrl(String.format("jdbc:mysql://%s:%s/%s", arguments[0], (Integer.parseInt(arguments[1]) == 0 ? "3306" : arguments[1]), arguments[2]));
-                        }
-                        conf.setUsername(arguments[3]);
-                        conf.setPassword(arguments[4]);
-                        return new HikariDataSource(conf);
-                    });
+                    IPoolProvider provider = () -> new HikariDataSource(createMysqlConfig(maximumPoolSize, minIdle, arguments));
+                    if (!this.replicas.isEmpty()) {
+                        this.connectionAuthenticator = new ConnectionAuthenticator(getLogger(), provider, createReplicaProviders(maximumPoolSize, minIdle), getReplicaWeights(), this.replicaSelection, getExecutorProvider());
+                    } else {
+                        this.connectionAuthenticator = new ConnectionAuthenticator(getLogger(), provider, getExecutorProvider());
+                    }
                     break;
                 }
                 case SQLITE: {
-                    this.connectionAuthenticator = new ConnectionAuthenticator(getLogger(), () -> {
-                        HikariConfig conf = new HikariConfig();
-                        conf.setConnectionTimeout(7500);
-                        File confDb;
-                        if (arguments.length >= 2 && arguments[1] != null) {
-                            confDb = new File(arguments[0], arguments[1]);
-                        } else {
-                            confDb = new File(arguments[0]);
-                        }
-                        if (!confDb.exists()) {
-                            try {
-                                if (!confDb.createNewFile()) {
-                                    getLogger().error("An error occurred while trying to create sqlite database file");
-                                    return null;
-                                }
-                            } catch (IOException e) {
-                                getLogger().error("An error occurred while trying to create sqlite database file", e);
+                    File confDb = sqliteFile(arguments);
+                    if (!confDb.exists()) {
+                        try {
+                            if (!confDb.createNewFile()) {
+                                getLogger().error("An error occurred while trying to create sqlite database file");
                                 return null;
                             }
+                        } catch (IOException e) {
+                            getLogger().error("An error occurred while trying to create sqlite database file", e);
+                            return null;
                         }
-                        conf.setJdbcUrl("jdbc:sqlite://" + confDb.getAbsolutePath());
-                        return new HikariDataSource(conf);
-                    });
+                    }
+                    if (!this.replicas.isEmpty()) {
+                        this.connectionAuthenticator = new ConnectionAuthenticator(getLogger(),
+                                () -> new HikariDataSource(createSqliteConfig(confDb, maximumPoolSize, minIdle, false)),
+                                createReplicaProviders(maximumPoolSize, minIdle), getReplicaWeights(), this.replicaSelection,
+                                getExecutorProvider());
+                    } else if (this.sqliteHighThroughput) {
+                        this.connectionAuthenticator = new ConnectionAuthenticator(getLogger(),
+                                () -> new HikariDataSource(createSqliteConfig(confDb, 1, 1, false)),
+                                () -> new HikariDataSource(createSqliteConfig(confDb, maximumPoolSize, minIdle, true)),
+                                getExecutorProvider());
+                    } else {
+                        this.connectionAuthenticator = new ConnectionAuthenticator(getLogger(), () -> new HikariDataSource(createSqliteConfig(confDb, maximumPoolSize, minIdle, false)), getExecutorProvider());
+                    }
                     break;
                 }
                 default: {
                     getLogger().error("There was no driver found with this name");
                 }
             }
+            if (this.connectionAuthenticator != null) {
+                this.connectionAuthenticator.getCommand().setStatementCacheSize(this.statementCacheSize);
+                this.connectionAuthenticator.getCommand().setMetricsListener(this.metricsListener);
+                this.connectionAuthenticator.getCommand().setDiagnostics(this.diagnostics);
+                this.connectionAuthenticator.getCommand().setDatabaseType(getDatabaseType());
+                this.connectionAuthenticator.getCommand().getReplicaRouter().setEjection(this.replicaFailureThreshold, this.replicaCooldown);
+                if (this.limitAlgorithm != null) {
+                    this.connectionAuthenticator.getCommand().setConcurrencyLimiter(createLimiter(this.connectionAuthenticator));
+                }
+            }
             return this.connectionAuthenticator;
         } catch (Exception e) {
             getLogger().error("An error occurred while trying to connect to the database: ", e);
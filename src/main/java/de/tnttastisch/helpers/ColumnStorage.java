@@ -0,0 +1,97 @@
+package de.tnttastisch.helpers;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Where the primitive columns of a {@link ColumnarResult} are stored.
+ * @since = 2.1-RELEASE
+ */
+public enum ColumnStorage {
+
+    /**
+     * Columns are backed by {@code int[]}, {@code long[]} and {@code double[]} arrays on the heap,
+     * trimmed to the number of rows once the result is read.
+     */
+    HEAP {
+        @Override
+        IntBuffer ints(int capacity) {
+            return IntBuffer.allocate(capacity);
+        }
+
+        @Override
+        LongBuffer longs(int capacity) {
+            return LongBuffer.allocate(capacity);
+        }
+
+        @Override
+        DoubleBuffer doubles(int capacity) {
+            return DoubleBuffer.allocate(capacity);
+        }
+    },
+
+    /**
+     * Columns are backed by direct buffers outside the heap, so very large results neither count against
+     * the heap nor get copied by the garbage collector. The memory is released once the result is
+     * garbage collected, the size of all direct buffers is limited by {@code -XX:MaxDirectMemorySize}.
+     * Strings and other non-primitive values stay on the heap, only their dictionary codes are moved.
+     */
+    OFF_HEAP {
+        @Override
+        IntBuffer ints(int capacity) {
+            return direct(capacity, Integer.BYTES).asIntBuffer();
+        }
+
+        @Override
+        LongBuffer longs(int capacity) {
+            return direct(capacity, Long.BYTES).asLongBuffer();
+        }
+
+        @Override
+        DoubleBuffer doubles(int capacity) {
+            return direct(capacity, Double.BYTES).asDoubleBuffer();
+        }
+
+        private ByteBuffer direct(int capacity, int bytes) {
+            return ByteBuffer.allocateDirect(Math.multiplyExact(capacity, bytes)).order(ByteOrder.nativeOrder());
+        }
+    };
+
+    abstract IntBuffer ints(int capacity);
+
+    abstract LongBuffer longs(int capacity);
+
+    abstract DoubleBuffer doubles(int capacity);
+
+    /**
+     * Allocates a buffer with the given capacity containing the first values of the source.
+     */
+    IntBuffer copy(IntBuffer source, int size, int capacity) {
+        IntBuffer target = ints(capacity);
+        target.put(slice(source.duplicate(), size));
+        return target;
+    }
+
+    LongBuffer copy(LongBuffer source, int size, int capacity) {
+        LongBuffer target = longs(capacity);
+        target.put(slice(source.duplicate(), size));
+        return target;
+    }
+
+    DoubleBuffer copy(DoubleBuffer source, int size, int capacity) {
+        DoubleBuffer target = doubles(capacity);
+        target.put(slice(source.duplicate(), size));
+        return target;
+    }
+
+    private static <B extends Buffer> B slice(B buffer, int size) {
+        // Called through Buffer, the covariant overrides of newer runtimes do not exist on Java 8
+        buffer.position(0);
+        buffer.limit(size);
+        return buffer;
+    }
+}
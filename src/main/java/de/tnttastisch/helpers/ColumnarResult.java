@@ -0,0 +1,541 @@
+package de.tnttastisch.helpers;
+
+import java.math.BigDecimal;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A fully read query result stored column by column. Integral and floating point columns are kept in
+ * primitive {@code int}, {@code long} and {@code double} columns with a null bitmap, character columns
+ * are dictionary-encoded, so repeated strings are stored once. Only the remaining column types, like
+ * decimals or dates, keep one object per value.
+ * <p>
+ * Rows are addressed by their 0-based index, columns like in JDBC by their 1-based index or by their label.
+ * The getters convert like {@link Row}, null reads as 0 or false.
+ * @since = 2.1-RELEASE
+ */
+public final class ColumnarResult {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Column[] columns;
+    private final Map<String, Integer> labels;
+    private final int rows;
+
+    private ColumnarResult(Column[] columns, Map<String, Integer> labels, int rows) {
+        this.columns = columns;
+        this.labels = labels;
+        this.rows = rows;
+    }
+
+    /**
+     * Reads all remaining rows of a result set.
+     * @param result  The result set, positioned before the first row to read.
+     * @param storage Where the primitive columns are stored.
+     * @return The columnar result.
+     * @throws SQLException If a database access error occurs.
+     */
+    static ColumnarResult read(ResultSet result, ColumnStorage storage) throws SQLException {
+        ResultSetMetaData metaData = result.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        Column[] columns = new Column[columnCount];
+        Map<String, Integer> labels = new HashMap<>();
+        for (int i = columnCount; i >= 1; i--) {
+            labels.put(metaData.getColumnLabel(i).toLowerCase(Locale.ROOT), i);
+            columns[i - 1] = Column.create(metaData.getColumnLabel(i), metaData.getColumnType(i), storage);
+        }
+        int rows = 0;
+        while (result.next()) {
+            if (rows == Integer.MAX_VALUE - 8) throw new SQLException("The result has too many rows for a columnar result");
+            for (int i = 0; i < columnCount; i++) {
+                columns[i].read(result, i + 1, rows);
+            }
+            rows++;
+        }
+        for (Column column : columns) {
+            column.finish(rows);
+        }
+        return new ColumnarResult(columns, labels, rows);
+    }
+
+    /**
+     * @return The number of rows.
+     */
+    public int getRowCount() {
+        return rows;
+    }
+
+    /**
+     * @return The number of columns.
+     */
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    /**
+     * @param column The 1-based column index.
+     * @return The label of the column.
+     */
+    public String getColumnLabel(int column) {
+        return column(column).label;
+    }
+
+    /**
+     * @param label The column label, compared case-insensitively.
+     * @return The 1-based index of the column.
+     */
+    public int findColumn(String label) {
+        Integer column = labels.get(label.toLowerCase(Locale.ROOT));
+        if (column == null) throw new IllegalArgumentException("There is no column " + label);
+        return column;
+    }
+
+    /**
+     * @param row    The 0-based row index.
+     * @param column The 1-based column index.
+     * @return Whether the value is null.
+     */
+    public boolean isNull(int row, int column) {
+        return column(column).isNull(check(row));
+    }
+
+    /**
+     * @param row   The 0-based row index.
+     * @param label The column label, compared case-insensitively.
+     * @return Whether the value is null.
+     */
+    public boolean isNull(int row, String label) {
+        return isNull(row, findColumn(label));
+    }
+
+    /**
+     * @param row    The 0-based row index.
+     * @param column The 1-based column index.
+     * @return The numeric value, 0 for null like {@link ResultSet#getInt(int)}.
+     */
+    public int getInt(int row, int column) {
+        return (int) getLong(row, column);
+    }
+
+    /**
+     * @param row   The 0-based row index.
+     * @param label The column label, compared case-insensitively.
+     * @return The numeric value, 0 for null like {@link ResultSet#getInt(String)}.
+     */
+    public int getInt(int row, String label) {
+        return getInt(row, findColumn(label));
+    }
+
+    /**
+     * @param row    The 0-based row index.
+     * @param column The 1-based column index.
+     * @return The numeric value, 0 for null like {@link ResultSet#getLong(int)}.
+     */
+    public long getLong(int row, int column) {
+        return column(column).getLong(check(row));
+    }
+
+    /**
+     * @param row   The 0-based row index.
+     * @param label The column label, compared case-insensitively.
+     * @return The numeric value, 0 for null like {@link ResultSet#getLong(String)}.
+     */
+    public long getLong(int row, String label) {
+        return getLong(row, findColumn(label));
+    }
+
+    /**
+     * @param row    The 0-based row index.
+     * @param column The 1-based column index.
+     * @return The numeric value, 0 for null like {@link ResultSet#getDouble(int)}.
+     */
+    public double getDouble(int row, int column) {
+        return column(column).getDouble(check(row));
+    }
+
+    /**
+     * @param row   The 0-based row index.
+     * @param label The column label, compared case-insensitively.
+     * @return The numeric value, 0 for null like {@link ResultSet#getDouble(String)}.
+     */
+    public double getDouble(int row, String label) {
+        return getDouble(row, findColumn(label));
+    }
+
+    /**
+     * @param row    The 0-based row index.
+     * @param column The 1-based column index.
+     * @return The boolean value, false for null like {@link ResultSet#getBoolean(int)}.
+     */
+    public boolean getBoolean(int row, int column) {
+        Object value = getObject(row, column);
+        if (value == null) return false;
+        if (value instanceof Boolean) return (Boolean) value;
+        if (value instanceof Number) return ((Number) value).doubleValue() != 0;
+        String string = String.valueOf(value);
+        return string.equalsIgnoreCase("true") || string.equals("1");
+    }
+
+    /**
+     * @param row   The 0-based row index.
+     * @param label The column label, compared case-insensitively.
+     * @return The boolean value, false for null like {@link ResultSet#getBoolean(String)}.
+     */
+    public boolean getBoolean(int row, String label) {
+        return getBoolean(row, findColumn(label));
+    }
+
+    /**
+     * @param row    The 0-based row index.
+     * @param column The 1-based column index.
+     * @return The value as string, may be null.
+     */
+    public String getString(int row, int column) {
+        return column(column).getString(check(row));
+    }
+
+    /**
+     * @param row   The 0-based row index.
+     * @param label The column label, compared case-insensitively.
+     * @return The value as string, may be null.
+     */
+    public String getString(int row, String label) {
+        return getString(row, findColumn(label));
+    }
+
+    /**
+     * Gets a value as object, which boxes primitive values.
+     * @param row    The 0-based row index.
+     * @param column The 1-based column index.
+     * @return The value, may be null.
+     */
+    public Object getObject(int row, int column) {
+        return column(column).getObject(check(row));
+    }
+
+    /**
+     * Gets a value as object, which boxes primitive values.
+     * @param row   The 0-based row index.
+     * @param label The column label, compared case-insensitively.
+     * @return The value, may be null.
+     */
+    public Object getObject(int row, String label) {
+        return getObject(row, findColumn(label));
+    }
+
+    private Column column(int column) {
+        if (column < 1 || column > columns.length) throw new IndexOutOfBoundsException("There is no column " + column);
+        return columns[column - 1];
+    }
+
+    private int check(int row) {
+        if (row < 0 || row >= rows) throw new IndexOutOfBoundsException("There is no row " + row);
+        return row;
+    }
+
+    private static int grow(int capacity) {
+        return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(INITIAL_CAPACITY, capacity * 2L));
+    }
+
+    private static Number toNumber(Object value) {
+        if (value == null) return 0;
+        if (value instanceof Number) return (Number) value;
+        if (value instanceof Boolean) return ((Boolean) value) ? 1 : 0;
+        return new BigDecimal(String.valueOf(value).trim());
+    }
+
+    /**
+     * The values of one column together with the bitmap of its null values.
+     */
+    private abstract static class Column {
+        private final String label;
+        final ColumnStorage storage;
+        private long[] nulls;
+
+        private Column(String label, ColumnStorage storage) {
+            this.label = label;
+            this.storage = storage;
+        }
+
+        static Column create(String label, int sqlType, ColumnStorage storage) {
+            switch (sqlType) {
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                    return new IntegralColumn(label, storage, false);
+                case Types.BIGINT:
+                    return new IntegralColumn(label, storage, true);
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    return new FloatingColumn(label, storage);
+                case Types.CHAR:
+                case Types.VARCHAR:
+                case Types.LONGVARCHAR:
+                case Types.NCHAR:
+                case Types.NVARCHAR:
+                case Types.LONGNVARCHAR:
+                    return new StringColumn(label, storage);
+                default:
+                    return new ObjectColumn(label, storage);
+            }
+        }
+
+        abstract void read(ResultSet result, int index, int row) throws SQLException;
+
+        /**
+         * Called once all rows are read.
+         */
+        void finish(int rows) {
+        }
+
+        abstract long getLong(int row);
+
+        abstract double getDouble(int row);
+
+        abstract Object getObject(int row);
+
+        String getString(int row) {
+            Object value = getObject(row);
+            return value == null ? null : String.valueOf(value);
+        }
+
+        void setNull(int row) {
+            int word = row >>> 6;
+            if (this.nulls == null) {
+                this.nulls = new long[Math.max(word + 1, INITIAL_CAPACITY >>> 6)];
+            } else if (word >= this.nulls.length) {
+                this.nulls = Arrays.copyOf(this.nulls, Math.max(word + 1, this.nulls.length * 2));
+            }
+            this.nulls[word] |= 1L << row;
+        }
+
+        boolean isNull(int row) {
+            int word = row >>> 6;
+            return this.nulls != null && word < this.nulls.length && (this.nulls[word] & (1L << row)) != 0;
+        }
+    }
+
+    /**
+     * Integers, stored as {@code int} until a value does not fit, for example in a SQLite {@code INTEGER} column.
+     */
+    private static final class IntegralColumn extends Column {
+        private IntBuffer ints;
+        private LongBuffer longs;
+
+        private IntegralColumn(String label, ColumnStorage storage, boolean wide) {
+            super(label, storage);
+            if (wide) {
+                this.longs = storage.longs(INITIAL_CAPACITY);
+            } else {
+                this.ints = storage.ints(INITIAL_CAPACITY);
+            }
+        }
+
+        @Override
+        void read(ResultSet result, int index, int row) throws SQLException {
+            long value = result.getLong(index);
+            if (result.wasNull()) {
+                setNull(row);
+            }
+            if (this.longs == null && value != (int) value) {
+                this.longs = this.storage.longs(this.ints.capacity());
+                for (int i = 0; i < row; i++) {
+                    this.longs.put(i, this.ints.get(i));
+                }
+                this.ints = null;
+            }
+            if (this.longs != null) {
+                if (row == this.longs.capacity()) this.longs = this.storage.copy(this.longs, row, grow(row));
+                this.longs.put(row, value);
+            } else {
+                if (row == this.ints.capacity()) this.ints = this.storage.copy(this.ints, row, grow(row));
+                this.ints.put(row, (int) value);
+            }
+        }
+
+        @Override
+        void finish(int rows) {
+            if (this.storage != ColumnStorage.HEAP) return;
+            if (this.longs != null) {
+                if (this.longs.capacity() != rows) this.longs = this.storage.copy(this.longs, rows, rows);
+            } else if (this.ints.capacity() != rows) {
+                this.ints = this.storage.copy(this.ints, rows, rows);
+            }
+        }
+
+        @Override
+        long getLong(int row) {
+            return this.longs != null ? this.longs.get(row) : this.ints.get(row);
+        }
+
+        @Override
+        double getDouble(int row) {
+            return getLong(row);
+        }
+
+        @Override
+        Object getObject(int row) {
+            if (isNull(row)) return null;
+            return this.longs != null ? (Object) this.longs.get(row) : (Object) this.ints.get(row);
+        }
+    }
+
+    private static final class FloatingColumn extends Column {
+        private DoubleBuffer values;
+
+        private FloatingColumn(String label, ColumnStorage storage) {
+            super(label, storage);
+            this.values = storage.doubles(INITIAL_CAPACITY);
+        }
+
+        @Override
+        void read(ResultSet result, int index, int row) throws SQLException {
+            double value = result.getDouble(index);
+            if (result.wasNull()) {
+                setNull(row);
+            }
+            if (row == this.values.capacity()) this.values = this.storage.copy(this.values, row, grow(row));
+            this.values.put(row, value);
+        }
+
+        @Override
+        void finish(int rows) {
+            if (this.storage == ColumnStorage.HEAP && this.values.capacity() != rows) {
+                this.values = this.storage.copy(this.values, rows, rows);
+            }
+        }
+
+        @Override
+        long getLong(int row) {
+            return (long) this.values.get(row);
+        }
+
+        @Override
+        double getDouble(int row) {
+            return this.values.get(row);
+        }
+
+        @Override
+        Object getObject(int row) {
+            return isNull(row) ? null : this.values.get(row);
+        }
+    }
+
+    /**
+     * Strings stored as codes into a dictionary of their distinct values.
+     */
+    private static final class StringColumn extends Column {
+        private Map<String, Integer> codes = new HashMap<>();
+        private List<String> values = new ArrayList<>();
+        private String[] dictionary;
+        private IntBuffer rows;
+
+        private StringColumn(String label, ColumnStorage storage) {
+            super(label, storage);
+            this.rows = storage.ints(INITIAL_CAPACITY);
+        }
+
+        @Override
+        void read(ResultSet result, int index, int row) throws SQLException {
+            String value = result.getString(index);
+            int code = -1;
+            if (value == null) {
+                setNull(row);
+            } else {
+                Integer known = this.codes.get(value);
+                if (known == null) {
+                    known = this.values.size();
+                    this.codes.put(value, known);
+                    this.values.add(value);
+                }
+                code = known;
+            }
+            if (row == this.rows.capacity()) this.rows = this.storage.copy(this.rows, row, grow(row));
+            this.rows.put(row, code);
+        }
+
+        @Override
+        void finish(int rows) {
+            this.dictionary = this.values.toArray(new String[0]);
+            this.codes = null;
+            this.values = null;
+            if (this.storage == ColumnStorage.HEAP && this.rows.capacity() != rows) {
+                this.rows = this.storage.copy(this.rows, rows, rows);
+            }
+        }
+
+        @Override
+        long getLong(int row) {
+            return toNumber(getObject(row)).longValue();
+        }
+
+        @Override
+        double getDouble(int row) {
+            return toNumber(getObject(row)).doubleValue();
+        }
+
+        @Override
+        Object getObject(int row) {
+            int code = this.rows.get(row);
+            return code < 0 ? null : this.dictionary[code];
+        }
+
+        @Override
+        String getString(int row) {
+            return (String) getObject(row);
+        }
+    }
+
+    /**
+     * Any other type, kept as the objects returned by the driver.
+     */
+    private static final class ObjectColumn extends Column {
+        private Object[] values = new Object[INITIAL_CAPACITY];
+
+        private ObjectColumn(String label, ColumnStorage storage) {
+            super(label, storage);
+        }
+
+        @Override
+        void read(ResultSet result, int index, int row) throws SQLException {
+            Object value = result.getObject(index);
+            if (value == null) {
+                setNull(row);
+            }
+            if (row == this.values.length) this.values = Arrays.copyOf(this.values, grow(row));
+            this.values[row] = value;
+        }
+
+        @Override
+        void finish(int rows) {
+            if (this.values.length != rows) this.values = Arrays.copyOf(this.values, rows);
+        }
+
+        @Override
+        long getLong(int row) {
+            return toNumber(this.values[row]).longValue();
+        }
+
+        @Override
+        double getDouble(int row) {
+            return toNumber(this.values[row]).doubleValue();
+        }
+
+        @Override
+        Object getObject(int row) {
+            return this.values[row];
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package de.tnttastisch.helpers;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.pool.HikariPool;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how many operations of a {@link DatabaseCommand} run against the database at the same time and
+ * adapts the limit to the observed statement latency, so throughput follows what the database sustains.
+ * Operations above the limit wait for a free slot at most as long as they would wait for a connection.
+ * <p>
+ * Optionally the maximum size of a connection pool follows the limit, so connections are opened
+ * while the database keeps up and retired once it slows down.
+ * @since = 2.1-RELEASE
+ */
+public class ConcurrencyLimiter {
+
+    private static final double BACKOFF = 0.9;
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final double SHORT_WINDOW = 10;
+    private static final double LONG_WINDOW = 600;
+
+    private final LimitAlgorithm algorithm;
+    private final int minLimit;
+    private final int maxLimit;
+    private volatile long latencyThreshold = TimeUnit.SECONDS.toNanos(1);
+    private HikariPool pool;
+    private int poolMinimumIdle;
+    private double limit;
+    private int inFlight;
+    private double shortLatency;
+    private double longLatency;
+
+    /**
+     * Creates a limiter.
+     * @param algorithm    How the limit is adjusted.
+     * @param initialLimit The limit before the first operation finished.
+     * @param minLimit     The lowest limit, must be positive.
+     * @param maxLimit     The highest limit, usually the number of executor threads.
+     */
+    public ConcurrencyLimiter(LimitAlgorithm algorithm, int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit <= 0) throw new IllegalArgumentException("The minimum limit must be positive");
+        if (maxLimit < minLimit) throw new IllegalArgumentException("The maximum limit must not be less than the minimum limit");
+        this.algorithm = algorithm;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Sets the latency above which {@link LimitAlgorithm#AIMD} reduces the limit. Has no effect on other algorithms.
+     * @param latencyThreshold The latency threshold in milliseconds, 1 second by default.
+     */
+    public void setLatencyThreshold(long latencyThreshold) {
+        if (latencyThreshold <= 0) throw new IllegalArgumentException("The latency threshold must be positive");
+        this.latencyThreshold = TimeUnit.MILLISECONDS.toNanos(latencyThreshold);
+    }
+
+    /**
+     * Lets the maximum size of the pool follow the limit through its {@link HikariConfigMXBean}. The minimum
+     * number of idle connections of the pool is lowered along with the limit and restored once it grows again.
+     * @param pool The pool to resize, or null to stop resizing.
+     */
+    public synchronized void resizePool(HikariPool pool) {
+        this.pool = pool;
+        if (pool != null) {
+            this.poolMinimumIdle = pool.config.getMinimumIdle();
+            applyPoolSize(getLimit());
+        }
+    }
+
+    /**
+     * @return The number of operations currently allowed to run at the same time.
+     */
+    public synchronized int getLimit() {
+        return (int) this.limit;
+    }
+
+    /**
+     * @return The number of operations currently running.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Waits for a free slot.
+     * @param timeout The maximum time to wait in nanoseconds.
+     * @return Whether a slot was acquired.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    synchronized boolean acquire(long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout;
+        while (this.inFlight >= (int) this.limit) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) return false;
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        this.inFlight++;
+        return true;
+    }
+
+    /**
+     * Frees the slot of a finished operation and adjusts the limit.
+     * @param latency The latency of the operation in nanoseconds, or -1 if it failed for an unrelated reason.
+     * @param dropped Whether the operation ran into its deadline.
+     */
+    synchronized void release(long latency, boolean dropped) {
+        int previous = (int) this.limit;
+        if (latency >= 0 || dropped) {
+            update(latency, dropped);
+        }
+        this.inFlight--;
+        if ((int) this.limit != previous) {
+            applyPoolSize((int) this.limit);
+        }
+        notifyAll();
+    }
+
+    private void update(long latency, boolean dropped) {
+        // An operation which is limited by its caller instead of the database says nothing about the limit
+        boolean used = this.inFlight * 2 >= (int) this.limit;
+        double limit = this.limit;
+        if (this.algorithm == LimitAlgorithm.AIMD) {
+            if (dropped || latency > this.latencyThreshold) {
+                limit *= BACKOFF;
+            } else if (used) {
+                limit += 1 / limit;
+            }
+        } else {
+            if (dropped) {
+                limit *= BACKOFF;
+            } else {
+                this.shortLatency = this.shortLatency == 0 ? latency : this.shortLatency + (latency - this.shortLatency) / SHORT_WINDOW;
+                this.longLatency = this.longLatency == 0 ? latency : this.longLatency + (latency - this.longLatency) / LONG_WINDOW;
+                if (this.longLatency > this.shortLatency * 2) {
+                    // The baseline was raised by a slowdown which is over, let it recover faster
+                    this.longLatency *= 0.95;
+                }
+                if (used) {
+                    double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * this.longLatency / this.shortLatency));
+                    limit = limit * (1 - SMOOTHING) + (limit * gradient + Math.sqrt(limit)) * SMOOTHING;
+                }
+            }
+        }
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, limit));
+    }
+
+    private void applyPoolSize(int limit) {
+        HikariPool pool = this.pool;
+        if (pool == null) return;
+        HikariConfigMXBean config = pool.config;
+        if (limit >= config.getMaximumPoolSize()) {
+            config.setMaximumPoolSize(limit);
+            config.setMinimumIdle(Math.min(this.poolMinimumIdle, limit));
+        } else {
+            config.setMinimumIdle(Math.min(this.poolMinimumIdle, limit));
+            config.setMaximumPoolSize(limit);
+        }
+    }
+}
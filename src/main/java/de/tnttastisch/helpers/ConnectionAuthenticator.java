@@ -1,17 +1,28 @@
 package de.tnttastisch.helpers;
 
+import com.zaxxer.hikari.HikariDataSource;
 import com.zaxxer.hikari.pool.*;
+import de.tnttastisch.IExecutorProvider;
 import de.tnttastisch.IPoolProvider;
 import org.slf4j.*;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ConnectionAuthenticator {
 
     private final Logger logger;
     private final HikariPool pool;
+    private final List<HikariPool> replicaPools;
+    private final ExecutorService executor;
+    private final ExecutorService writeExecutor;
     private final DatabaseCommand command;
+    private volatile WriteBehindQueue writeBehind;
+    private volatile boolean ready;
 
     /**
      * Constructs an SQL instance with the provided logger and connection pool provider.
@@ -21,20 +32,175 @@ public class ConnectionAuthenticator {
      * @throws InterruptedException If a thread is interrupted while waiting.
      */
     public ConnectionAuthenticator(final Logger logger, final IPoolProvider provider) throws SQLException, InterruptedException {
+        this(logger, provider, DatabaseExecutors::bounded);
+    }
+
+    /**
+     * Constructs an SQL instance with the provided logger, connection pool provider and executor provider.
+     * @param logger           The logger instance to log errors and messages.
+     * @param provider         The pool provider for creating the connection pool.
+     * @param executorProvider The executor provider for creating the executor running the database operations.
+     * @throws SQLException         If a database access error occurs.
+     * @throws InterruptedException If a thread is interrupted while waiting.
+     */
+    public ConnectionAuthenticator(final Logger logger, final IPoolProvider provider, final IExecutorProvider executorProvider) throws SQLException, InterruptedException {
+        this(logger, provider, null, executorProvider);
+    }
+
+    /**
+     * Constructs an SQL instance which sends writes and reads to separate connection pools.
+     * Writes are serialized through an executor the provider creates for a single connection,
+     * queries run on the executor of the read pool.
+     * The write pool is created first, so it can prepare the database for the readers.
+     * @param logger           The logger instance to log errors and messages.
+     * @param writeProvider    The pool provider for creating the connection pool receiving all writes.
+     * @param readProvider     The pool provider for creating the connection pool receiving all queries,
+     *                         or null to send queries to the write pool as well.
+     * @param executorProvider The executor provider for creating the executor running the queries.
+     * @throws SQLException         If a database access error occurs.
+     * @throws InterruptedException If a thread is interrupted while waiting.
+     */
+    public ConnectionAuthenticator(final Logger logger, final IPoolProvider writeProvider, final IPoolProvider readProvider, final IExecutorProvider executorProvider) throws SQLException, InterruptedException {
+        this(logger, writeProvider, readProvider == null ? Collections.<IPoolProvider>emptyList() : Collections.singletonList(readProvider), null, ReplicaSelection.LEAST_OUTSTANDING, readProvider != null, executorProvider);
+    }
+
+    /**
+     * Constructs an SQL instance which sends writes to a primary and spreads queries across read replicas.
+     * Queries fall back to the primary while no replica is healthy.
+     * @param logger           The logger instance to log errors and messages.
+     * @param primaryProvider  The pool provider for creating the connection pool of the primary.
+     * @param replicaProviders The pool providers for creating the connection pools of the replicas.
+     * @param weights          The weight of every replica in the order of the providers, or null for equal weights.
+     * @param selection        How a replica is picked for a query.
+     * @param executorProvider The executor provider for creating the executor running the database operations.
+     * @throws SQLException         If a database access error occurs.
+     * @throws InterruptedException If a thread is interrupted while waiting.
+     */
+    public ConnectionAuthenticator(final Logger logger, final IPoolProvider primaryProvider, final List<IPoolProvider> replicaProviders, final int[] weights, final ReplicaSelection selection, final IExecutorProvider executorProvider) throws SQLException, InterruptedException {
+        this(logger, primaryProvider, replicaProviders, weights, selection, false, executorProvider);
+    }
+
+    private ConnectionAuthenticator(final Logger logger, final IPoolProvider primaryProvider, final List<IPoolProvider> replicaProviders, final int[] weights, final ReplicaSelection selection, final boolean serializeWrites, final IExecutorProvider executorProvider) throws SQLException, InterruptedException {
         this.logger = logger;
-        this.pool = new HikariPool(provider.createDataSource());
-        this.command = new DatabaseCommand(getConnection(), logger, Executors.newCachedThreadPool());
+        final HikariDataSource dataSource = primaryProvider.createDataSource();
+        this.pool = new HikariPool(dataSource);
+        final List<HikariPool> replicaPools = new ArrayList<>(replicaProviders.size());
+        int replicaPoolSize = 0;
+        for (final IPoolProvider replicaProvider : replicaProviders) {
+            final HikariDataSource replicaDataSource = replicaProvider.createDataSource();
+            replicaPools.add(new HikariPool(replicaDataSource));
+            replicaPoolSize += replicaDataSource.getMaximumPoolSize();
+        }
+        this.replicaPools = Collections.unmodifiableList(replicaPools);
+        if (serializeWrites) {
+            this.executor = executorProvider.createExecutor(replicaPoolSize);
+            this.writeExecutor = executorProvider.createExecutor(1);
+        } else {
+            this.executor = executorProvider.createExecutor(dataSource.getMaximumPoolSize() + replicaPoolSize);
+            this.writeExecutor = this.executor;
+        }
+        this.command = new DatabaseCommand(this.pool, new ReplicaRouter(logger, this.replicaPools, weights, selection), logger, this.executor, this.writeExecutor);
+
+        // Lazily initialized pools open their connections in the background or on warmUp
+        if (dataSource.getInitializationFailTimeout() >= 0) {
+            try (Connection connection = pool.getConnection(15000)) {
+                ping(connection);
+                this.ready = true;
+            } catch (final SQLException exp) {
+                shutdown();
+                getLogger().error("Connection test failed", exp);
+            }
+        }
+    }
+
+    /**
+     * Opens connections of the primary and of every replica in parallel, so the first operations do not wait
+     * for a connection to be established. The connections are leased at the same time, which forces the pools
+     * to open distinct connections, and are returned to their pools afterwards. A failed replica is only logged,
+     * it is ejected by the {@link ReplicaRouter} once queries fail on it.
+     * @param connections The number of connections to open per pool, capped at the maximum pool size.
+     *                    At least one connection of the primary is opened for the connection test.
+     * @return A CompletableFuture completing once the connections of the primary are open and the connection
+     * test passed, or completing exceptionally if the primary could not be reached.
+     */
+    public CompletableFuture<Void> warmUp(int connections) {
+        if (connections < 0) throw new IllegalArgumentException("The number of warm-up connections must not be negative");
+        final int primaryConnections = Math.max(1, Math.min(connections, this.pool.config.getMaximumPoolSize()));
+        int threads = primaryConnections;
+        for (final HikariPool replicaPool : this.replicaPools) {
+            threads += Math.min(connections, replicaPool.config.getMaximumPoolSize());
+        }
+        final AtomicInteger counter = new AtomicInteger();
+        final ExecutorService warmUpExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+            final Thread thread = new Thread(runnable, "SQLAPI-WarmUp-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        final List<CompletableFuture<Void>> warmUps = new ArrayList<>(this.replicaPools.size() + 1);
+        warmUps.add(warmUp(this.pool, primaryConnections, true, warmUpExecutor));
+        for (int i = 0; i < this.replicaPools.size(); i++) {
+            final HikariPool replicaPool = this.replicaPools.get(i);
+            final int replicaConnections = Math.min(connections, replicaPool.config.getMaximumPoolSize());
+            if (replicaConnections == 0) continue;
+            final int index = i;
+            warmUps.add(warmUp(replicaPool, replicaConnections, false, warmUpExecutor).exceptionally(error -> {
+                getLogger().warn("The warm-up of replica " + index + " failed", error);
+                return null;
+            }));
+        }
+        return CompletableFuture.allOf(warmUps.toArray(new CompletableFuture<?>[0])).whenComplete((ignored, error) -> {
+            warmUpExecutor.shutdown();
+            if (error == null) {
+                this.ready = true;
+            }
+        });
+    }
+
+    private CompletableFuture<Void> warmUp(final HikariPool pool, final int connections, final boolean test, final Executor executor) {
+        final List<CompletableFuture<Connection>> leases = new ArrayList<>(connections);
+        for (int i = 0; i < connections; i++) {
+            leases.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return pool.getConnection();
+                } catch (final SQLException e) {
+                    throw new CompletionException(e);
+                }
+            }, executor));
+        }
+        return CompletableFuture.allOf(leases.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            if (!test) return;
+            try {
+                ping(leases.get(0).join());
+            } catch (final SQLException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((ignored, error) -> {
+            for (final CompletableFuture<Connection> lease : leases) {
+                if (lease.isCompletedExceptionally()) continue;
+                try {
+                    lease.join().close();
+                } catch (final SQLException e) {
+                    getLogger().error("An error occurred while closing the connection.", e);
+                }
+            }
+        });
+    }
 
-        try (Connection connection = pool.getConnection(15000)) {
-            final PreparedStatement statement = connection.prepareStatement("/* ping */ SELECT 1");
+    private void ping(final Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("/* ping */ SELECT 1")) {
             statement.setQueryTimeout(15);
-            statement.executeQuery();
-        } catch (final SQLException exp) {
-            shutdown();
-            getLogger().error("Connection test failed", exp);
+            statement.executeQuery().close();
         }
     }
 
+    /**
+     * @return Whether the connection test passed, either while constructing this instance or during {@link #warmUp(int)}.
+     * Always false before the warm-up if the pools are initialized lazily.
+     */
+    public boolean isReady() {
+        return this.ready && !isShutdown();
+    }
+
     /**
      * Retrieves a connection from the connection pool.
      * @return The obtained Connection.
@@ -52,12 +218,36 @@ public class ConnectionAuthenticator {
         return pool;
     }
 
+    /**
+     * Gets the Hikari connection pool receiving the queries.
+     * @return The pool of the first replica, or the same as {@link #getPool()} unless reads and writes are split.
+     */
+    public HikariPool getReadPool() {
+        return this.replicaPools.isEmpty() ? this.pool : this.replicaPools.get(0);
+    }
+
+    /**
+     * Gets the Hikari connection pools of the read replicas.
+     * @return The replica pools, in the order they were configured.
+     */
+    public List<HikariPool> getReplicaPools() {
+        return replicaPools;
+    }
+
     /**
      * Shuts down the connection pool associated with this SQL instance.
      * @throws SQLException If a database access error occurs.
      * @throws InterruptedException If a thread is interrupted while waiting.
      */
     public void shutdown() throws SQLException, InterruptedException {
+        if (this.writeBehind != null) {
+            this.writeBehind.shutdown();
+        }
+        this.executor.shutdown();
+        this.writeExecutor.shutdown();
+        if (!this.executor.awaitTermination(15, TimeUnit.SECONDS) || !this.writeExecutor.awaitTermination(15, TimeUnit.SECONDS)) {
+            getLogger().warn("Pending database operations did not finish before the shutdown.");
+        }
         Connection connection = null;
         try {
             connection = getConnection();
@@ -67,6 +257,9 @@ public class ConnectionAuthenticator {
         } catch (SQLException e) {
             getLogger().error("An error occurred while closing the connection.", e);
         } finally {
+            for (HikariPool replicaPool : getReplicaPools()) {
+                replicaPool.shutdown();
+            }
             if (getPool() != null) {
                 getPool().shutdown();
             }
@@ -76,6 +269,42 @@ public class ConnectionAuthenticator {
         }
     }
 
+    /**
+     * @return Whether this SQL instance was shut down, either explicitly or because the connection test failed.
+     */
+    public boolean isShutdown() {
+        return this.executor.isShutdown();
+    }
+
+    /**
+     * Gets the executor running the asynchronous database operations.
+     * @return The ExecutorService instance.
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Enables the write-behind queue for fire-and-forget updates. Buffered updates are flushed on {@link #shutdown()}.
+     * @param flushSize     The number of pending updates which triggers a flush.
+     * @param flushInterval The maximum time in milliseconds an update stays buffered.
+     * @param capacity      The maximum number of pending updates before enqueue blocks.
+     * @return The write-behind queue.
+     */
+    public synchronized WriteBehindQueue enableWriteBehind(int flushSize, long flushInterval, int capacity) {
+        if (this.writeBehind == null) {
+            this.writeBehind = new WriteBehindQueue(getPool(), getCommand(), getLogger(), flushSize, flushInterval, capacity);
+        }
+        return this.writeBehind;
+    }
+
+    /**
+     * @return the write-behind queue, or null if it is not enabled
+     */
+    public WriteBehindQueue getWriteBehind() {
+        return writeBehind;
+    }
+
     /**
      * @return the command class
      */
@@ -1,64 +1,465 @@
 package de.tnttastisch.helpers;
 
+import com.zaxxer.hikari.pool.HikariPool;
+import de.tnttastisch.metrics.IMetricsListener;
+import de.tnttastisch.metrics.OperationType;
+import de.tnttastisch.metrics.SqlFingerprint;
 import org.slf4j.Logger;
 
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Since 2.0-RELEASE
  */
 public class DatabaseCommand {
 
-    private Connection connection;
-    private Logger logger;
-    private ExecutorService service;
+    private static final Object[] NO_ARGUMENTS = new Object[0];
 
-    public DatabaseCommand(Connection connection, Logger logger, ExecutorService service) {
-        this.connection = connection;
+    private final HikariPool pool;
+    private final ReplicaRouter replicas;
+    private final boolean primaryReads;
+    private final long timeout;
+    private final Logger logger;
+    private final ExecutorService service;
+    private final ExecutorService writeService;
+    private final StatementCache statements;
+    private volatile DatabaseCommand primary;
+    private volatile QueryCache queryCache;
+    private volatile IMetricsListener metricsListener = IMetricsListener.NOOP;
+    private volatile int fetchSize;
+    private volatile int batchSize = 1000;
+    private volatile DatabaseType databaseType;
+    private volatile long defaultTimeout;
+    private volatile ConcurrencyLimiter concurrencyLimiter;
+    private volatile QueryDiagnostics diagnostics;
+
+    /**
+     * Creates a command instance which leases its own connection from the given pool for every operation.
+     * @param pool    The connection pool to lease connections from.
+     * @param logger  The logger instance to log errors and messages.
+     * @param service The executor service running the asynchronous operations.
+     */
+    public DatabaseCommand(HikariPool pool, Logger logger, ExecutorService service) {
+        this(pool, pool, logger, service, service);
+    }
+
+    /**
+     * Creates a command instance which routes queries and writes to separate pools and executors.
+     * Queries and streams use the read side, updates and batches the write side.
+     * @param pool         The connection pool receiving all writes.
+     * @param readPool     The connection pool receiving all queries.
+     * @param logger       The logger instance to log errors and messages.
+     * @param service      The executor service running the queries.
+     * @param writeService The executor service running the writes.
+     */
+    public DatabaseCommand(HikariPool pool, HikariPool readPool, Logger logger, ExecutorService service, ExecutorService writeService) {
+        this(pool, new ReplicaRouter(logger, readPool == pool ? Collections.emptyList() : Collections.singletonList(readPool), null, ReplicaSelection.LEAST_OUTSTANDING), logger, service, writeService);
+    }
+
+    /**
+     * Creates a command instance which sends writes to the primary pool and spreads queries across replicas.
+     * Queries fall back to the primary while no replica is healthy.
+     * @param pool         The connection pool of the primary, receiving all writes.
+     * @param replicas     The router picking the replica for every query.
+     * @param logger       The logger instance to log errors and messages.
+     * @param service      The executor service running the queries.
+     * @param writeService The executor service running the writes.
+     */
+    public DatabaseCommand(HikariPool pool, ReplicaRouter replicas, Logger logger, ExecutorService service, ExecutorService writeService) {
+        this.pool = pool;
+        this.replicas = replicas;
+        this.primaryReads = false;
+        this.timeout = -1;
         this.logger = logger;
         this.service = service;
+        this.writeService = writeService;
+        this.statements = new StatementCache(0);
+    }
+
+    private DatabaseCommand(DatabaseCommand parent, boolean primaryReads, long timeout) {
+        this.pool = parent.pool;
+        this.replicas = parent.replicas;
+        this.primaryReads = primaryReads;
+        this.timeout = timeout;
+        this.logger = parent.logger;
+        this.service = parent.service;
+        this.writeService = parent.writeService;
+        this.statements = parent.statements;
+    }
+
+    /**
+     * Gets a view of this command which runs queries on the primary as well, for reads which must see
+     * the writes made just before (read-your-writes). The view shares all settings with this command
+     * and never serves queries from the query cache.
+     * @return The command sending every operation to the primary.
+     */
+    public DatabaseCommand onPrimary() {
+        if (this.primaryReads) return this;
+        if (this.timeout >= 0) return new CommandView(root(), true, this.timeout);
+        DatabaseCommand primary = this.primary;
+        if (primary == null) {
+            primary = new CommandView(this, true, -1);
+            this.primary = primary;
+        }
+        return primary;
+    }
+
+    /**
+     * Gets a view of this command whose operations have the given deadline instead of the default timeout.
+     * The view shares all settings with this command.
+     * @param timeout The time in milliseconds from submitting an operation until it has to be finished, 0 for none.
+     * @return The command running every operation with the given deadline.
+     * @see #setDefaultTimeout(long)
+     */
+    public DatabaseCommand withTimeout(long timeout) {
+        if (timeout < 0) throw new IllegalArgumentException("The timeout must not be negative");
+        return new CommandView(root(), this.primaryReads, timeout);
+    }
+
+    /**
+     * Gets the deadline of operations run without {@link #withTimeout(long)}.
+     * @return The time in milliseconds from submitting an operation until it has to be finished, 0 for none.
+     */
+    public long getDefaultTimeout() {
+        return defaultTimeout;
+    }
+
+    /**
+     * Sets the deadline of operations run without {@link #withTimeout(long)}. An operation still waiting for
+     * the executor or for a connection when its deadline passes is dropped without touching the database,
+     * a running statement gets the remaining time as its query timeout. Both fail with a
+     * {@link SQLTimeoutException}, which is handled like any other Sql error.
+     * @param defaultTimeout The time in milliseconds from submitting an operation until it has to be finished, 0 for none.
+     */
+    public void setDefaultTimeout(long defaultTimeout) {
+        if (defaultTimeout < 0) throw new IllegalArgumentException("The timeout must not be negative");
+        this.defaultTimeout = defaultTimeout;
+    }
+
+    /**
+     * Gets the limiter bounding how many operations of this command run at the same time.
+     * @return The concurrency limiter, or null if operations are only bounded by the executor and the pool.
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    /**
+     * Sets the limiter bounding how many operations of this command run at the same time.
+     * An operation which finds no free slot before its connection timeout or deadline fails with a
+     * {@link SQLTransientException}, which is handled like any other Sql error.
+     * @param concurrencyLimiter The concurrency limiter, or null to remove it.
+     */
+    public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+        this.concurrencyLimiter = concurrencyLimiter;
+    }
+
+    /**
+     * Gets the diagnostics logging slow statements and repeated statements of this command.
+     * @return The query diagnostics, or null if diagnostics are disabled.
+     */
+    public QueryDiagnostics getDiagnostics() {
+        return diagnostics;
+    }
+
+    /**
+     * Sets the diagnostics logging slow statements and repeated statements of this command.
+     * @param diagnostics The query diagnostics, or null to disable diagnostics.
+     */
+    public void setDiagnostics(QueryDiagnostics diagnostics) {
+        this.diagnostics = diagnostics;
+    }
+
+    DatabaseCommand root() {
+        return this;
+    }
+
+    private Call newCall(OperationType type, String sql) {
+        return newCall(type, sql, null);
+    }
+
+    /**
+     * Creates the state of an operation and counts it for the N+1 detection of the diagnostics.
+     * @param arguments The arguments of the statement, either an Object[] or {@link Parameters}, only used by the diagnostics.
+     */
+    private Call newCall(OperationType type, String sql, Object arguments) {
+        Call call = new Call(type, sql, arguments, this.timeout >= 0 ? this.timeout : getDefaultTimeout());
+        QueryDiagnostics diagnostics = getDiagnostics();
+        if (diagnostics != null && arguments != null && diagnostics.isRepeatDetection()) {
+            String callSite = findCallSite();
+            String fingerprint = SqlFingerprint.of(sql);
+            int count = diagnostics.recordSubmission(fingerprint, callSite);
+            if (count > 0) {
+                this.logger.warn("The statement \"{}\" was submitted {} times within {} ms from {}, consider fetching the rows with one query or a batch (N+1 pattern)",
+                        fingerprint, count, diagnostics.getRepeatWindow(), callSite);
+            }
+        }
+        return call;
+    }
+
+    /**
+     * Finds the first stack frame outside of this package, which is the code submitting the statement.
+     */
+    private static String findCallSite() {
+        for (StackTraceElement element : new Throwable().getStackTrace()) {
+            if (!element.getClassName().startsWith("de.tnttastisch.helpers.")) return element.toString();
+        }
+        return "unknown";
+    }
+
+    /**
+     * Gets the router spreading queries across the read replicas.
+     * @return The replica router.
+     */
+    public ReplicaRouter getReplicaRouter() {
+        return replicas;
     }
 
     /**
      * Executes a SQL query asynchronously.
+     * The rows are copied into a disconnected row set before the connection is handed back to the pool,
+     * which is positioned on the first row.
      * @param query The SQL query to execute.
      * @param arguments The arguments to be set in the prepared statement.
-     * @return A CompletableFuture containing the query result as a ResultSet.
+     * @return A CompletableFuture containing the query result as a ResultSet, or null if there are no rows.
+     * @deprecated Materializes the complete result, use {@link #forEach(String, RowMapper, Consumer, Object...)}
+     * or {@link #stream(String, RowMapper, Object...)} instead.
      */
+    @Deprecated
     public CompletableFuture<ResultSet> query(String query, Object... arguments) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Connection connection = this.connection) {
-                PreparedStatement statement = connection.prepareStatement(query);
-                setArgs(arguments, statement);
-                ResultSet result = statement.executeQuery();
-                if (!(result.next())) return null;
-                return result;
-            } catch (SQLException e) {
-                this.logger.error("A Sql error occurred while catching a query: ", e);
-                return null;
+        return execute(newCall(OperationType.QUERY, query, arguments), "A Sql error occurred while catching a query: ", (connection, call) -> withStatement(connection, call, query, statement -> {
+            setArgs(arguments, statement);
+            try (ResultSet result = statement.executeQuery()) {
+                CachedRowSet rows = RowSetProvider.newFactory().createCachedRowSet();
+                rows.populate(result);
+                call.rows = rows.size();
+                if (!(rows.next())) return null;
+                return rows;
             }
-        }, this.service);
+        }));
     }
 
     /**
      * Executes a SQL query asynchronously.
      * @param query The SQL query to execute.
-     * @return A CompletableFuture containing the query result as a ResultSet.
+     * @return A CompletableFuture containing the query result as a ResultSet, or null if there are no rows.
+     * @deprecated Materializes the complete result, use {@link #forEach(String, RowMapper, Consumer, Object...)}
+     * or {@link #stream(String, RowMapper, Object...)} instead.
      */
+    @Deprecated
     public CompletableFuture<ResultSet> query(String query) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Connection connection = this.connection) {
-                PreparedStatement statement = connection.prepareStatement(query);
-                ResultSet result = statement.executeQuery();
-                if (!(result.next())) return null;
-                return result;
+        return query(query, NO_ARGUMENTS);
+    }
+
+    /**
+     * Executes a SQL query asynchronously and hands every mapped row to the consumer while the result is read,
+     * so only one row is held in memory at a time. The consumer runs on the executor thread.
+     * @param query The SQL query to execute.
+     * @param mapper The mapper converting the current row.
+     * @param consumer The consumer receiving every mapped row.
+     * @param arguments The arguments to be set in the prepared statement.
+     * @return A CompletableFuture containing the number of consumed rows.
+     */
+    public <T> CompletableFuture<Long> forEach(String query, RowMapper<T> mapper, Consumer<? super T> consumer, Object... arguments) {
+        return forEach(query, getFetchSize(), mapper, consumer, arguments);
+    }
+
+    /**
+     * Executes a SQL query asynchronously and hands every mapped row to the consumer while the result is read,
+     * so only one row is held in memory at a time. The consumer runs on the executor thread.
+     * @param query The SQL query to execute.
+     * @param fetchSize The number of rows the driver should fetch per round trip, 0 for the driver default.
+     * @param mapper The mapper converting the current row.
+     * @param consumer The consumer receiving every mapped row.
+     * @param arguments The arguments to be set in the prepared statement.
+     * @return A CompletableFuture containing the number of consumed rows.
+     */
+    public <T> CompletableFuture<Long> forEach(String query, int fetchSize, RowMapper<T> mapper, Consumer<? super T> consumer, Object... arguments) {
+        return executeForEach(query, fetchSize, arguments, DatabaseCommand::setArgs, mapper, consumer);
+    }
+
+    <A, T> CompletableFuture<Long> executeForEach(String query, int fetchSize, A arguments, ParameterBinder<A> binder, RowMapper<T> mapper, Consumer<? super T> consumer) {
+        return execute(newCall(OperationType.QUERY, query, arguments), "A Sql error occurred while streaming a query: ", (connection, call) -> withStatement(connection, call, query, statement -> {
+            statement.setFetchSize(fetchSize);
+            binder.bind(arguments, statement);
+            long rows = 0;
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    consumer.accept(mapper.map(result));
+                    rows++;
+                }
+            }
+            call.rows = rows;
+            return rows;
+        }));
+    }
+
+    /**
+     * Executes a SQL query asynchronously and copies all rows into detached {@link Row} objects.
+     * If a query cache is set, the result is served from and stored in the cache.
+     * @param query The SQL query to execute.
+     * @param arguments The arguments to be set in the prepared statement.
+     * @return A CompletableFuture containing the detached rows.
+     */
+    public CompletableFuture<List<Row>> queryRows(String query, Object... arguments) {
+        QueryCache cache = this.primaryReads ? null : getQueryCache();
+        if (cache != null) {
+            List<Row> cached = cache.get(query, arguments);
+            if (cached != null) return CompletableFuture.completedFuture(cached);
+        }
+        if (cache == null) {
+            return executeQueryRows(query, arguments, DatabaseCommand::setArgs, null);
+        }
+        long generation = cache.generation();
+        return executeQueryRows(query, arguments, DatabaseCommand::setArgs, rows -> cache.put(query, arguments, rows, generation));
+    }
+
+    <A> CompletableFuture<List<Row>> executeQueryRows(String query, A arguments, ParameterBinder<A> binder, Consumer<List<Row>> onResult) {
+        return execute(newCall(OperationType.QUERY, query, arguments), "A Sql error occurred while catching a query: ", (connection, call) -> withStatement(connection, call, query, statement -> {
+            binder.bind(arguments, statement);
+            List<Row> rows = new ArrayList<>();
+            RowMapper<Row> mapper = Row.mapper();
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    rows.add(mapper.map(result));
+                }
+            }
+            call.rows = rows.size();
+            if (onResult != null) {
+                onResult.accept(rows);
+            }
+            return rows;
+        }));
+    }
+
+    /**
+     * Executes a SQL query asynchronously and reads all rows into a heap {@link ColumnarResult}, which keeps
+     * numbers in primitive columns and encodes strings with a dictionary instead of creating an object per row.
+     * Results are never served from the query cache.
+     * @param query The SQL query to execute.
+     * @param arguments The arguments to be set in the prepared statement.
+     * @return A CompletableFuture containing the columnar result.
+     */
+    public CompletableFuture<ColumnarResult> queryColumns(String query, Object... arguments) {
+        return queryColumns(query, ColumnStorage.HEAP, arguments);
+    }
+
+    /**
+     * Executes a SQL query asynchronously and reads all rows into a {@link ColumnarResult}, which keeps
+     * numbers in primitive columns and encodes strings with a dictionary instead of creating an object per row.
+     * The rows are read with the default fetch size, for MySQL see {@link #setFetchSize(int)} to keep the driver
+     * from buffering the complete result as well. Results are never served from the query cache.
+     * @param query The SQL query to execute.
+     * @param storage Where the primitive columns are stored.
+     * @param arguments The arguments to be set in the prepared statement.
+     * @return A CompletableFuture containing the columnar result.
+     */
+    public CompletableFuture<ColumnarResult> queryColumns(String query, ColumnStorage storage, Object... arguments) {
+        return executeQueryColumns(query, arguments, DatabaseCommand::setArgs, storage);
+    }
+
+    <A> CompletableFuture<ColumnarResult> executeQueryColumns(String query, A arguments, ParameterBinder<A> binder, ColumnStorage storage) {
+        return execute(newCall(OperationType.QUERY, query, arguments), "A Sql error occurred while catching a query: ", (connection, call) -> withStatement(connection, call, query, statement -> {
+            statement.setFetchSize(getFetchSize());
+            binder.bind(arguments, statement);
+            try (ResultSet result = statement.executeQuery()) {
+                ColumnarResult columns = ColumnarResult.read(result, storage);
+                call.rows = columns.getRowCount();
+                return columns;
+            }
+        }));
+    }
+
+    /**
+     * Executes a SQL query asynchronously and returns a lazy stream over the mapped rows.
+     * The stream keeps its leased connection until all rows are consumed or the stream is closed,
+     * so it should always be used in a try-with-resources block.
+     * @param query The SQL query to execute.
+     * @param mapper The mapper converting the current row.
+     * @param arguments The arguments to be set in the prepared statement.
+     * @return A CompletableFuture containing the stream of mapped rows.
+     */
+    public <T> CompletableFuture<Stream<T>> stream(String query, RowMapper<T> mapper, Object... arguments) {
+        return stream(query, getFetchSize(), mapper, arguments);
+    }
+
+    /**
+     * Executes a SQL query asynchronously and returns a lazy stream over the mapped rows.
+     * The stream keeps its leased connection until all rows are consumed or the stream is closed,
+     * so it should always be used in a try-with-resources block.
+     * @param query The SQL query to execute.
+     * @param fetchSize The number of rows the driver should fetch per round trip, 0 for the driver default.
+     * @param mapper The mapper converting the current row.
+     * @param arguments The arguments to be set in the prepared statement.
+     * @return A CompletableFuture containing the stream of mapped rows.
+     */
+    public <T> CompletableFuture<Stream<T>> stream(String query, int fetchSize, RowMapper<T> mapper, Object... arguments) {
+        Call call = newCall(OperationType.STREAM, query, arguments);
+        return submit(call, this.service, future -> {
+            IMetricsListener listener = getMetricsListener();
+            listener.onDequeued(call.type, System.nanoTime() - call.submitted);
+            ReplicaRouter.Replica replica = null;
+            Connection connection = null;
+            PreparedStatement statement = null;
+            ConcurrencyLimiter limiter = null;
+            try {
+                call.checkDeadline();
+                limiter = acquireLimit(call);
+                replica = this.primaryReads ? null : this.replicas.acquire();
+                connection = lease(replica, call);
+                long start = System.nanoTime();
+                statement = this.statements.prepare(connection, query);
+                statement.setFetchSize(fetchSize);
+                setArgs(arguments, statement);
+                call.begin(statement);
+                ResultSet result;
+                try {
+                    result = statement.executeQuery();
+                } finally {
+                    call.end();
+                }
+                long latency = System.nanoTime() - start;
+                if (limiter != null) {
+                    // Reading the rows is paced by the caller, only opening the stream counts against the limit
+                    limiter.release(latency, false);
+                    limiter = null;
+                }
+                diagnose(connection, call, latency);
+                ReplicaRouter.Replica leased = replica;
+                return new ResultSetSpliterator<>(connection, this.statements, query, statement, result, mapper, this.logger, rows -> {
+                    this.replicas.release(leased, null);
+                    call.rows = rows;
+                    report(listener, call, start);
+                }).stream();
             } catch (SQLException e) {
-                this.logger.error("A Sql error occurred while catching a query (single): ", e);
+                new ResultSetSpliterator<>(connection, this.statements, query, statement, null, mapper, this.logger, rows -> {
+                }).close();
+                SQLException failure = call.translate(e);
+                this.replicas.release(replica, failure);
+                if (limiter != null) {
+                    limiter.release(-1, failure instanceof SQLTimeoutException);
+                }
+                if (future.isCancelled()) return null;
+                reportError(listener, call, failure);
+                this.logger.error("A Sql error occurred while opening a streamed query: ", failure);
                 return null;
             }
-        }, this.service);
+        });
     }
 
     /**
@@ -68,17 +469,16 @@ public class DatabaseCommand {
      * @return A CompletableFuture representing the completion of the update operation.
      */
     public CompletableFuture<Void> update(String update, Object... arguments) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Connection connection = this.connection) {
-                PreparedStatement statement = connection.prepareStatement(update);
-                setArgs(arguments, statement);
-                statement.executeUpdate();
-                return null;
-            } catch (SQLException e) {
-                this.logger.error("A Sql error occurred while execute an update: ", e);
-                return null;
-            }
-        }, this.service);
+        return executeUpdate(update, arguments, DatabaseCommand::setArgs);
+    }
+
+    <A> CompletableFuture<Void> executeUpdate(String update, A arguments, ParameterBinder<A> binder) {
+        return execute(newCall(OperationType.UPDATE, update, arguments), "A Sql error occurred while execute an update: ", (connection, call) -> withStatement(connection, call, update, statement -> {
+            binder.bind(arguments, statement);
+            call.rows = statement.executeUpdate();
+            invalidate(update);
+            return null;
+        }));
     }
 
     /**
@@ -87,16 +487,7 @@ public class DatabaseCommand {
      * @return A CompletableFuture representing the completion of the update operation.
      */
     public CompletableFuture<Void> update(String update) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Connection connection = this.connection) {
-                PreparedStatement statement = connection.prepareStatement(update);
-                statement.executeUpdate();
-                return null;
-            } catch (SQLException e) {
-                this.logger.error("A Sql error occurred while execute an update (single): ", e);
-                return null;
-            }
-        }, this.service);
+        return update(update, NO_ARGUMENTS);
     }
 
 
@@ -107,17 +498,12 @@ public class DatabaseCommand {
      * @return A CompletableFuture representing the completion of the large update operation.
      */
     public CompletableFuture<Void> largeUpdate(String update, Object... arguments) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Connection connection = this.connection) {
-                PreparedStatement statement = connection.prepareStatement(update);
-                setArgs(arguments, statement);
-                statement.executeLargeUpdate();
-                return null;
-            } catch (SQLException e) {
-                this.logger.error("A Sql error occurred while execute a large update: ", e);
-                return null;
-            }
-        }, this.service);
+        return execute(newCall(OperationType.LARGE_UPDATE, update, arguments), "A Sql error occurred while execute a large update: ", (connection, call) -> withStatement(connection, call, update, statement -> {
+            setArgs(arguments, statement);
+            call.rows = statement.executeLargeUpdate();
+            invalidate(update);
+            return null;
+        }));
     }
 
     /**
@@ -126,70 +512,513 @@ public class DatabaseCommand {
      * @return A CompletableFuture representing the completion of the large update operation.
      */
     public CompletableFuture<Void> largeUpdate(String update) {
-        return CompletableFuture.supplyAsync(() -> {
-            try (Connection connection = this.connection) {
-                PreparedStatement statement = connection.prepareStatement(update);
-                statement.executeLargeUpdate();
-                return null;
+        return largeUpdate(update, NO_ARGUMENTS);
+    }
+
+    /**
+     * Executes the same SQL update for every argument row as JDBC batches inside a single transaction.
+     * If any chunk fails the whole transaction is rolled back.
+     * @param update The SQL update statement to execute.
+     * @param arguments The argument rows, one array per execution of the statement.
+     * @return A CompletableFuture containing the update count of every row, in the order of the argument rows.
+     */
+    public CompletableFuture<int[]> batch(String update, Collection<Object[]> arguments) {
+        return batch(update, getBatchSize(), arguments);
+    }
+
+    /**
+     * Executes the same SQL update for every argument row as JDBC batches inside a single transaction.
+     * If any chunk fails the whole transaction is rolled back.
+     * @param update The SQL update statement to execute.
+     * @param batchSize The maximum number of rows sent to the database with one executeBatch call.
+     * @param arguments The argument rows, one array per execution of the statement.
+     * @return A CompletableFuture containing the update count of every row, in the order of the argument rows.
+     */
+    public CompletableFuture<int[]> batch(String update, int batchSize, Collection<Object[]> arguments) {
+        return executeBatch(update, batchSize, arguments, DatabaseCommand::setArgs);
+    }
+
+    <A> CompletableFuture<int[]> executeBatch(String update, int batchSize, Collection<A> arguments, ParameterBinder<A> binder) {
+        return execute(newCall(OperationType.BATCH, update), "A Sql error occurred while execute a batch: ", (connection, call) -> {
+            int[] counts = executeBatch(connection, call, update, batchSize, arguments, binder);
+            for (int count : counts) {
+                call.rows += Math.max(count, 0);
+            }
+            return counts;
+        });
+    }
+
+    /**
+     * Creates a precompiled statement handle. The parameter types are declared once, so every execution
+     * binds its values with type-specialized setters and primitives are never boxed.
+     * @param sql The SQL text.
+     * @param types The declared types of the parameters, in parameter order.
+     * @return The statement handle.
+     */
+    public StatementHandle prepare(String sql, ParameterType... types) {
+        return new StatementHandle(this, sql, types.clone());
+    }
+
+    /**
+     * Creates a builder upserting many rows of a table with multi-row statements in the dialect of {@link #getDatabaseType()}.
+     * The builder caches its statement texts and should be kept for repeated upserts of the same table.
+     * @param table The name of the table.
+     * @return The upsert builder, the columns and key columns still have to be set.
+     */
+    public UpsertBuilder upsert(String table) {
+        return new UpsertBuilder(this, table);
+    }
+
+    /**
+     * Runs a unit of work asynchronously on a single connection leased from the primary, inside one transaction.
+     * The statements of the function run one after another without further executor hops or connection leases
+     * and are committed once when the function returns. If the function throws, the transaction is rolled back
+     * and the future completes exceptionally, a SQL error is logged as well. Unlike the other operations a failed
+     * transaction never completes the future with null, so a null result always means a committed transaction.
+     * @param function The statements of the unit of work.
+     * @return A CompletableFuture containing the result of the function.
+     */
+    public <T> CompletableFuture<T> transaction(TransactionFunction<T> function) {
+        return execute(newCall(OperationType.TRANSACTION, "TRANSACTION"), "A Sql error occurred while execute a transaction: ", true, (connection, call) -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            Transaction transaction = new Transaction(connection, this.statements, call);
+            boolean ended = false;
+            try {
+                T result = function.apply(transaction);
+                connection.commit();
+                ended = true;
+                for (String update : transaction.getUpdates()) {
+                    invalidate(update);
+                }
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                ended = rollback(connection, e);
+                throw e;
+            } finally {
+                transaction.close();
+                call.rows = transaction.getRows();
+                endTransaction(connection, autoCommit, ended);
+            }
+        });
+    }
+
+    /**
+     * Gets the default number of rows per executeBatch call.
+     * @return The default batch size.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the default number of rows per executeBatch call.
+     * @param batchSize The default batch size, must be positive.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) throw new IllegalArgumentException("The batch size must be positive");
+        this.batchSize = batchSize;
+    }
+
+    int[] executeBatch(Connection connection, String update, int batchSize, Collection<Object[]> arguments) throws SQLException {
+        return executeBatch(connection, newCall(OperationType.BATCH, update), update, batchSize, arguments, DatabaseCommand::setArgs);
+    }
+
+    private <A> int[] executeBatch(Connection connection, Call call, String update, int batchSize, Collection<A> arguments, ParameterBinder<A> binder) throws SQLException {
+        int[] counts = new int[arguments.size()];
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        PreparedStatement statement = this.statements.prepare(connection, update);
+        boolean ended = false;
+        try {
+            int offset = 0;
+            int pending = 0;
+            for (A row : arguments) {
+                binder.bind(row, statement);
+                statement.addBatch();
+                if (++pending == batchSize) {
+                    offset = copyCounts(executeBatch(call, statement), counts, offset);
+                    pending = 0;
+                }
+            }
+            if (pending > 0) {
+                copyCounts(executeBatch(call, statement), counts, offset);
+            }
+            connection.commit();
+            ended = true;
+            invalidate(update);
+            return counts;
+        } catch (SQLException | RuntimeException e) {
+            ended = rollback(connection, e);
+            throw e;
+        } finally {
+            this.statements.release(update, statement);
+            endTransaction(connection, autoCommit, ended);
+        }
+    }
+
+    /**
+     * Rolls back the open transaction of the connection.
+     * @return Whether the rollback succeeded, a failure is added to the given error.
+     */
+    private static boolean rollback(Connection connection, Exception error) {
+        try {
+            connection.rollback();
+            return true;
+        } catch (SQLException e) {
+            error.addSuppressed(e);
+            return false;
+        }
+    }
+
+    /**
+     * Restores the auto-commit mode after a unit of work was committed or rolled back. Restoring it while the
+     * transaction is still open would commit the partial work, and the pool does not roll it back on return
+     * either since the statements of the {@link StatementCache} bypass its proxy. Such a connection is evicted
+     * from the pool instead, closing it discards the open transaction.
+     */
+    private void endTransaction(Connection connection, boolean autoCommit, boolean ended) throws SQLException {
+        if (ended) {
+            connection.setAutoCommit(autoCommit);
+            return;
+        }
+        this.pool.evictConnection(connection);
+    }
+
+    private int[] executeBatch(Call call, PreparedStatement statement) throws SQLException {
+        call.begin(statement);
+        try {
+            return statement.executeBatch();
+        } finally {
+            call.end();
+        }
+    }
+
+    private int copyCounts(int[] chunk, int[] counts, int offset) {
+        System.arraycopy(chunk, 0, counts, offset, chunk.length);
+        return offset + chunk.length;
+    }
+
+    /**
+     * Gets the default fetch size used by streaming queries.
+     * @return The default fetch size, 0 for the driver default.
+     */
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Sets the default fetch size used by streaming queries. MySQL only streams rows with
+     * {@code useCursorFetch=true} in the connection options or with a fetch size of {@link Integer#MIN_VALUE}.
+     * @param fetchSize The number of rows the driver should fetch per round trip, 0 for the driver default.
+     */
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Gets the query result cache used by {@link #queryRows(String, Object...)}.
+     * @return The query cache, or null if results are not cached.
+     */
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Sets the query result cache used by {@link #queryRows(String, Object...)}.
+     * Updates executed through this command invalidate the entries of the tables they write to.
+     * @param queryCache The query cache, or null to disable caching.
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    private void invalidate(String update) {
+        QueryCache cache = getQueryCache();
+        if (cache != null) {
+            cache.invalidate(update);
+        }
+    }
+
+    /**
+     * Gets the prepared statement cache, which also reports its hit and miss counts.
+     * @return The statement cache.
+     */
+    public StatementCache getStatementCache() {
+        return statements;
+    }
+
+    /**
+     * Sets the number of prepared statements kept open per pooled connection.
+     * @param statementCacheSize The maximum number of cached statements per connection, 0 disables caching.
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statements.setMaximumSize(statementCacheSize);
+    }
+
+    private <T> T withStatement(Connection connection, Call call, String sql, SqlStatementFunction<T> function) throws SQLException {
+        PreparedStatement statement = this.statements.prepare(connection, sql);
+        try {
+            call.begin(statement);
+            try {
+                return function.apply(statement);
+            } finally {
+                call.end();
+            }
+        } finally {
+            this.statements.release(sql, statement);
+        }
+    }
+
+    /**
+     * Gets the type of the database this command runs on.
+     * @return The database type, or the global type if none was set.
+     */
+    @SuppressWarnings("deprecation")
+    public DatabaseType getDatabaseType() {
+        DatabaseType databaseType = this.databaseType;
+        return databaseType != null ? databaseType : DatabaseType.getType();
+    }
+
+    /**
+     * Sets the type of the database this command runs on, which selects the SQL dialect of generated statements.
+     * @param databaseType The database type, or null to use the global type.
+     */
+    public void setDatabaseType(DatabaseType databaseType) {
+        this.databaseType = databaseType;
+    }
+
+    /**
+     * Gets the listener receiving the timings and counters of every operation.
+     * @return The metrics listener.
+     */
+    public IMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+    /**
+     * Sets the listener receiving the timings and counters of every operation.
+     * @param metricsListener The metrics listener, or null to disable metrics.
+     */
+    public void setMetricsListener(IMetricsListener metricsListener) {
+        this.metricsListener = metricsListener == null ? IMetricsListener.NOOP : metricsListener;
+    }
+
+    /**
+     * Runs the given function on the executor with a connection leased from the pool for exactly this call.
+     * The connection is handed back to the pool as soon as the function returns.
+     * Calls whose deadline passed while they were queued are dropped before a connection is leased.
+     */
+    private <T> CompletableFuture<T> execute(Call call, String error, SqlFunction<T> function) {
+        return execute(call, error, false, function);
+    }
+
+    /**
+     * Runs the given function like {@link #execute(Call, String, SqlFunction)}.
+     * @param propagate Whether a SQL error completes the future exceptionally instead of with null.
+     */
+    private <T> CompletableFuture<T> execute(Call call, String error, boolean propagate, SqlFunction<T> function) {
+        return submit(call, call.type.isWrite() ? this.writeService : this.service, future -> {
+            IMetricsListener listener = getMetricsListener();
+            listener.onDequeued(call.type, System.nanoTime() - call.submitted);
+            ReplicaRouter.Replica replica = null;
+            SQLException failure = null;
+            ConcurrencyLimiter limiter = null;
+            long latency = -1;
+            try {
+                call.checkDeadline();
+                limiter = acquireLimit(call);
+                replica = call.type.isWrite() || this.primaryReads ? null : this.replicas.acquire();
+                try (Connection connection = lease(replica, call)) {
+                    long start = System.nanoTime();
+                    T result = function.apply(connection, call);
+                    latency = System.nanoTime() - start;
+                    report(listener, call, start);
+                    diagnose(connection, call, latency);
+                    return result;
+                }
             } catch (SQLException e) {
-                this.logger.error("A Sql error occurred while execute a large update (single): ", e);
+                failure = call.translate(e);
+                if (future.isCancelled()) return null;
+                reportError(listener, call, failure);
+                this.logger.error(error, failure);
+                if (propagate) throw new CompletionException(failure);
                 return null;
+            } finally {
+                this.replicas.release(replica, failure);
+                if (limiter != null) {
+                    limiter.release(latency, failure instanceof SQLTimeoutException);
+                }
             }
-        }, this.service);
+        });
+    }
+
+    /**
+     * Waits for a free slot of the concurrency limiter, at most as long as for a connection.
+     * @return The limiter to release once the call finished, or null if there is no limiter.
+     */
+    private ConcurrencyLimiter acquireLimit(Call call) throws SQLException {
+        ConcurrencyLimiter limiter = getConcurrencyLimiter();
+        if (limiter == null) return null;
+        long timeout = TimeUnit.MILLISECONDS.toNanos(this.pool.config.getConnectionTimeout());
+        if (call.deadline != 0) {
+            timeout = Math.min(timeout, call.deadline - System.nanoTime());
+        }
+        try {
+            if (limiter.acquire(timeout)) return limiter;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientException("Interrupted while waiting for the concurrency limit", e);
+        }
+        throw new SQLTransientException("The concurrency limit of " + limiter.getLimit() + " operations was reached");
+    }
+
+    /**
+     * Runs the task on the executor unless its future was cancelled while it was queued.
+     * If the executor rejects the task, the future completes exceptionally instead of throwing to the caller.
+     */
+    private <T> CompletableFuture<T> submit(Call call, ExecutorService executor, CallTask<T> task) {
+        CallFuture<T> future = new CallFuture<>(call);
+        try {
+            executor.execute(() -> {
+                if (future.isDone()) return;
+                try {
+                    future.complete(task.run(future));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * Leases a connection, waiting at most until the deadline of the call.
+     */
+    private Connection lease(ReplicaRouter.Replica replica, Call call) throws SQLException {
+        HikariPool pool = replica == null ? this.pool : replica.getPool();
+        if (call.deadline == 0) return pool.getConnection();
+        long remaining = TimeUnit.NANOSECONDS.toMillis(call.deadline - System.nanoTime());
+        return pool.getConnection(Math.max(1, Math.min(remaining, pool.config.getConnectionTimeout())));
+    }
+
+    /**
+     * Logs a call slower than the threshold of the diagnostics. Unless the plan of the statement was captured
+     * recently, it is explained on the connection which ran the statement, before the connection is handed back.
+     */
+    private void diagnose(Connection connection, Call call, long latency) {
+        QueryDiagnostics diagnostics = getDiagnostics();
+        if (diagnostics == null || !diagnostics.isSlow(latency)) return;
+        Object[] arguments = call.arguments instanceof Parameters ? ((Parameters) call.arguments).values() : (Object[]) call.arguments;
+        String statement = diagnostics.describe(call.sql, arguments);
+        long millis = TimeUnit.NANOSECONDS.toMillis(latency);
+        if (arguments == null || !diagnostics.shouldCapturePlan(SqlFingerprint.of(call.sql))) {
+            this.logger.warn("A slow {} took {} ms: {}", call.type.name().toLowerCase(), millis, statement);
+            return;
+        }
+        String plan;
+        try {
+            plan = explain(connection, call.sql, arguments);
+        } catch (SQLException e) {
+            plan = "unavailable (" + e.getMessage() + ")";
+        }
+        this.logger.warn("A slow {} took {} ms: {}{}Plan: {}", call.type.name().toLowerCase(), millis, statement, System.lineSeparator(), plan);
+    }
+
+    private String explain(Connection connection, String sql, Object[] arguments) throws SQLException {
+        boolean sqlite = getDatabaseType() == DatabaseType.SQLITE;
+        try (PreparedStatement statement = connection.prepareStatement((sqlite ? "EXPLAIN QUERY PLAN " : "EXPLAIN ") + sql)) {
+            setArgs(arguments, statement);
+            try (ResultSet result = statement.executeQuery()) {
+                ResultSetMetaData meta = result.getMetaData();
+                StringBuilder plan = new StringBuilder();
+                while (result.next()) {
+                    plan.append(System.lineSeparator()).append("  ");
+                    if (sqlite) {
+                        // The detail column describes the step, the id and parent columns only nest them
+                        plan.append(result.getString("detail"));
+                        continue;
+                    }
+                    for (int column = 1; column <= meta.getColumnCount(); column++) {
+                        Object value = result.getObject(column);
+                        if (value == null) continue;
+                        plan.append(meta.getColumnLabel(column)).append('=').append(value).append(' ');
+                    }
+                }
+                return plan.toString();
+            }
+        }
+    }
+
+    private void report(IMetricsListener listener, Call call, long start) {
+        if (listener == IMetricsListener.NOOP) return;
+        listener.onStatement(call.type, SqlFingerprint.of(call.sql), System.nanoTime() - start, call.rows);
     }
 
-    private void setArgs(Object[] args, PreparedStatement statement) throws SQLException {
+    private void reportError(IMetricsListener listener, Call call, SQLException error) {
+        if (listener == IMetricsListener.NOOP) return;
+        listener.onError(call.type, SqlFingerprint.of(call.sql), error);
+    }
+
+    static void setArgs(Object[] args, PreparedStatement statement) throws SQLException {
         for (int i = 0; i != args.length; i++) {
             Object o = args[i];
             int arg = i+1;
 
+            if (o == null) {
+                statement.setNull(arg, Types.NULL);
+                continue;
+            }
+
             if (o instanceof String) {
-                statement.setString(arg, String.valueOf(o));
+                statement.setString(arg, (String) o);
                 continue;
             }
 
             if (o instanceof Integer) {
-                statement.setInt(arg, Integer.parseInt(String.valueOf(o)));
+                statement.setInt(arg, (Integer) o);
                 continue;
             }
 
             if (o instanceof Long) {
-                statement.setLong(arg, Long.parseLong(String.valueOf(o)));
+                statement.setLong(arg, (Long) o);
                 continue;
             }
 
             if (o instanceof Double) {
-                statement.setDouble(arg, Double.parseDouble(String.valueOf(o)));
+                statement.setDouble(arg, (Double) o);
                 continue;
             }
 
             if (o instanceof Float) {
-                statement.setFloat(arg, Float.parseFloat(String.valueOf(o)));
+                statement.setFloat(arg, (Float) o);
                 continue;
             }
 
             if (o instanceof Boolean) {
-                statement.setBoolean(arg, Boolean.parseBoolean(String.valueOf(o)));
+                statement.setBoolean(arg, (Boolean) o);
                 continue;
             }
 
             if (o instanceof Byte) {
-                statement.setByte(arg, Byte.parseByte(String.valueOf(o)));
+                statement.setByte(arg, (Byte) o);
                 continue;
             }
 
             if(o instanceof Date) {
-                statement.setDate(arg, Date.valueOf(String.valueOf(o)));
+                statement.setDate(arg, (Date) o);
                 continue;
             }
 
             if (o instanceof Time) {
-                statement.setTime(arg, Time.valueOf(String.valueOf(o)));
+                statement.setTime(arg, (Time) o);
                 continue;
             }
 
             if (o instanceof Timestamp) {
-                statement.setTimestamp(arg, Timestamp.valueOf(String.valueOf(o)));
+                statement.setTimestamp(arg, (Timestamp) o);
                 continue;
             }
 
@@ -199,14 +1028,267 @@ public class DatabaseCommand {
                 continue;
             }
 
-            if (o instanceof Byte[]) {
+            if (o instanceof byte[]) {
                 statement.setBytes(arg, (byte[]) o);
                 continue;
             }
 
-            if (o != null) {
-                statement.setObject(arg, o);
+            if (o instanceof Byte[]) {
+                Byte[] boxed = (Byte[]) o;
+                byte[] bytes = new byte[boxed.length];
+                for (int j = 0; j < boxed.length; j++) {
+                    bytes[j] = boxed[j];
+                }
+                statement.setBytes(arg, bytes);
+                continue;
             }
+
+            statement.setObject(arg, o);
+        }
+    }
+
+    /**
+     * The views returned by {@link #onPrimary()} and {@link #withTimeout(long)}, which read and write the settings of their parent.
+     */
+    private static final class CommandView extends DatabaseCommand {
+        private final DatabaseCommand parent;
+
+        private CommandView(DatabaseCommand parent, boolean primaryReads, long timeout) {
+            super(parent, primaryReads, timeout);
+            this.parent = parent;
+        }
+
+        @Override
+        DatabaseCommand root() {
+            return this.parent;
+        }
+
+        @Override
+        public long getDefaultTimeout() {
+            return this.parent.getDefaultTimeout();
+        }
+
+        @Override
+        public ConcurrencyLimiter getConcurrencyLimiter() {
+            return this.parent.getConcurrencyLimiter();
+        }
+
+        @Override
+        public void setConcurrencyLimiter(ConcurrencyLimiter concurrencyLimiter) {
+            this.parent.setConcurrencyLimiter(concurrencyLimiter);
+        }
+
+        @Override
+        public QueryDiagnostics getDiagnostics() {
+            return this.parent.getDiagnostics();
+        }
+
+        @Override
+        public void setDiagnostics(QueryDiagnostics diagnostics) {
+            this.parent.setDiagnostics(diagnostics);
+        }
+
+        @Override
+        public void setDefaultTimeout(long defaultTimeout) {
+            this.parent.setDefaultTimeout(defaultTimeout);
+        }
+
+        @Override
+        public int getBatchSize() {
+            return this.parent.getBatchSize();
+        }
+
+        @Override
+        public void setBatchSize(int batchSize) {
+            this.parent.setBatchSize(batchSize);
+        }
+
+        @Override
+        public int getFetchSize() {
+            return this.parent.getFetchSize();
+        }
+
+        @Override
+        public void setFetchSize(int fetchSize) {
+            this.parent.setFetchSize(fetchSize);
+        }
+
+        @Override
+        public QueryCache getQueryCache() {
+            return this.parent.getQueryCache();
+        }
+
+        @Override
+        public void setQueryCache(QueryCache queryCache) {
+            this.parent.setQueryCache(queryCache);
+        }
+
+        @Override
+        public DatabaseType getDatabaseType() {
+            return this.parent.getDatabaseType();
+        }
+
+        @Override
+        public void setDatabaseType(DatabaseType databaseType) {
+            this.parent.setDatabaseType(databaseType);
+        }
+
+        @Override
+        public IMetricsListener getMetricsListener() {
+            return this.parent.getMetricsListener();
         }
+
+        @Override
+        public void setMetricsListener(IMetricsListener metricsListener) {
+            this.parent.setMetricsListener(metricsListener);
+        }
+    }
+
+    /**
+     * The state of a single operation, from its submission until it completed.
+     */
+    static final class Call {
+        private static final ScheduledThreadPoolExecutor WATCHDOG = createWatchdog();
+
+        private final OperationType type;
+        private final String sql;
+        private final Object arguments;
+        private final long submitted = System.nanoTime();
+        private final long deadline;
+        private long rows;
+        private Statement running;
+        private ScheduledFuture<?> expiry;
+        private boolean cancelled;
+        private boolean expired;
+
+        private Call(OperationType type, String sql, Object arguments, long timeout) {
+            this.type = type;
+            this.sql = sql;
+            this.arguments = arguments;
+            // 0 means no deadline, a computed deadline of 0 is moved by one nanosecond
+            this.deadline = timeout == 0 ? 0 : (this.submitted + TimeUnit.MILLISECONDS.toNanos(timeout)) | 1;
+        }
+
+        /**
+         * Fails if the deadline of this call has passed.
+         */
+        void checkDeadline() throws SQLException {
+            if (this.deadline != 0 && this.deadline - System.nanoTime() <= 0) {
+                throw new SQLTimeoutException("The deadline of the call passed while it was queued");
+            }
+        }
+
+        /**
+         * Registers the statement about to be executed, so cancelling the call cancels the statement,
+         * and sets the remaining time of the call as its query timeout. Drivers which only apply the query
+         * timeout to lock waits, like SQLite, are covered by cancelling the statement once the deadline passes.
+         */
+        void begin(Statement statement) throws SQLException {
+            long remaining = 0;
+            int seconds = 0;
+            if (this.deadline != 0) {
+                remaining = this.deadline - System.nanoTime();
+                if (remaining <= 0) throw new SQLTimeoutException("The deadline of the call passed before the statement started");
+                seconds = (int) Math.min(Integer.MAX_VALUE, Math.max(1, TimeUnit.NANOSECONDS.toSeconds(remaining + 999_999_999L)));
+            }
+            statement.setQueryTimeout(seconds);
+            synchronized (this) {
+                if (this.cancelled) throw new SQLException("The call was cancelled", "57014");
+                this.running = statement;
+                if (remaining > 0) {
+                    this.expiry = WATCHDOG.schedule(() -> interrupt(true), remaining, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+
+        /**
+         * Unregisters the statement once it finished executing.
+         */
+        synchronized void end() {
+            this.running = null;
+            if (this.expiry != null) {
+                this.expiry.cancel(false);
+                this.expiry = null;
+            }
+        }
+
+        /**
+         * Reports an error caused by cancelling the statement at the deadline as a timeout.
+         */
+        synchronized SQLException translate(SQLException error) {
+            if (!this.expired || error instanceof SQLTimeoutException) return error;
+            return new SQLTimeoutException("The deadline of the call passed while the statement was running", error);
+        }
+
+        private void interrupt(boolean deadline) {
+            Statement statement;
+            synchronized (this) {
+                if (deadline) {
+                    this.expired = true;
+                } else {
+                    this.cancelled = true;
+                }
+                statement = this.running;
+            }
+            if (statement == null) return;
+            try {
+                statement.cancel();
+            } catch (SQLException ignored) {
+                // The statement finished or its connection was closed in the meantime
+            }
+        }
+
+        private static ScheduledThreadPoolExecutor createWatchdog() {
+            ScheduledThreadPoolExecutor watchdog = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "SQLAPI-Deadline");
+                thread.setDaemon(true);
+                return thread;
+            });
+            watchdog.setRemoveOnCancelPolicy(true);
+            return watchdog;
+        }
+    }
+
+    /**
+     * The future of a call, cancelling it cancels the running statement of the call.
+     */
+    private static final class CallFuture<T> extends CompletableFuture<T> {
+        private final Call call;
+
+        private CallFuture(Call call) {
+            this.call = call;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled) {
+                this.call.interrupt(false);
+            }
+            return cancelled;
+        }
+    }
+
+    @FunctionalInterface
+    private interface CallTask<T> {
+        T run(CompletableFuture<T> future);
+    }
+
+    @FunctionalInterface
+    private interface SqlFunction<T> {
+        T apply(Connection connection, Call call) throws SQLException;
+    }
+
+    /**
+     * Binds the arguments of one execution to a prepared statement.
+     */
+    @FunctionalInterface
+    interface ParameterBinder<A> {
+        void bind(A arguments, PreparedStatement statement) throws SQLException;
+    }
+
+    @FunctionalInterface
+    private interface SqlStatementFunction<T> {
+        T apply(PreparedStatement statement) throws SQLException;
     }
 }
@@ -0,0 +1,91 @@
+package de.tnttastisch.helpers;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factory methods for the executors running {@link DatabaseCommand} operations.
+ * @since = 2.1-RELEASE
+ */
+public final class DatabaseExecutors {
+
+    /**
+     * The default number of operations waiting for a worker of a bounded executor.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private static final Method VIRTUAL_THREAD_EXECUTOR = findVirtualThreadExecutor();
+
+    private DatabaseExecutors() {
+    }
+
+    /**
+     * Creates an executor with a fixed number of threads and a queue of {@link #DEFAULT_QUEUE_CAPACITY} operations.
+     * Once the queue is full, new operations run on the submitting thread, which blocks it for the duration
+     * of the operation; use {@link #bounded(int, int, RejectedExecutionHandler)} with an abort policy to fail them instead.
+     * @param threads The number of worker threads, usually the maximum pool size.
+     * @return The bounded executor.
+     */
+    public static ExecutorService bounded(int threads) {
+        return bounded(threads, DEFAULT_QUEUE_CAPACITY, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * Creates an executor with a fixed number of threads and a bounded queue. Once the queue is full,
+     * new operations are handled by the given rejection policy instead of spawning more threads.
+     * @param threads          The number of worker threads, usually the maximum pool size.
+     * @param queueCapacity    The maximum number of operations waiting for a worker.
+     * @param rejectionPolicy  The policy for operations submitted while the queue is full.
+     * @return The bounded executor.
+     */
+    public static ExecutorService bounded(int threads, int queueCapacity, RejectedExecutionHandler rejectionPolicy) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), threadFactory(), rejectionPolicy);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Creates an executor starting a virtual thread for every operation. Requires a Java 21 or newer runtime.
+     * The connection pool still bounds how many operations run against the database at the same time.
+     * @return The virtual thread executor.
+     * @throws UnsupportedOperationException If the runtime does not support virtual threads.
+     */
+    public static ExecutorService virtual() {
+        if (VIRTUAL_THREAD_EXECUTOR == null) {
+            throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+        }
+        try {
+            return (ExecutorService) VIRTUAL_THREAD_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Virtual threads are not available", e);
+        }
+    }
+
+    /**
+     * @return Whether the runtime supports {@link #virtual()}.
+     */
+    public static boolean isVirtualSupported() {
+        return VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    private static ThreadFactory threadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> new Thread(runnable, "SQLAPI-Worker-" + counter.incrementAndGet());
+    }
+
+    private static Method findVirtualThreadExecutor() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -10,14 +10,20 @@ public enum DatabaseType {
     /**
      * Gets the current database type
      * @return The current DatabaseType.
+     * @deprecated The type is global to the JVM, pass it to {@link de.tnttastisch.SQLFactory#SQLFactory(org.slf4j.Logger, DatabaseType)} instead.
+     * It is only used by factories without a type of their own.
      */
+    @Deprecated
     public static DatabaseType getType() {
         return type;
     }
 
     /**
      * Sets the database type
+     * @deprecated The type is global to the JVM, pass it to {@link de.tnttastisch.SQLFactory#SQLFactory(org.slf4j.Logger, DatabaseType)} instead.
+     * It is only used by factories without a type of their own.
      */
+    @Deprecated
     public static void setType(DatabaseType type) {
         DatabaseType.type = type;
     }
@@ -0,0 +1,23 @@
+package de.tnttastisch.helpers;
+
+/**
+ * The IParameterRedactor interface masks sensitive parameter values before statements are logged by {@link QueryDiagnostics}.
+ * @since = 2.1-RELEASE
+ */
+@FunctionalInterface
+public interface IParameterRedactor {
+
+    /**
+     * A redactor masking every value.
+     */
+    IParameterRedactor ALL = (sql, index, value) -> value == null ? null : "***";
+
+    /**
+     * Masks a parameter value.
+     * @param sql   The SQL text of the statement.
+     * @param index The 1-based parameter index.
+     * @param value The bound value, may be null.
+     * @return The value to log in place of the bound value.
+     */
+    Object redact(String sql, int index, Object value);
+}
@@ -0,0 +1,22 @@
+package de.tnttastisch.helpers;
+
+/**
+ * How a {@link ConcurrencyLimiter} adjusts the number of operations allowed to run at the same time.
+ * @since = 2.1-RELEASE
+ */
+public enum LimitAlgorithm {
+
+    /**
+     * Additive increase, multiplicative decrease. The limit grows by one per round of successful operations
+     * while it is used, and is cut by 10% whenever an operation is slower than the latency threshold
+     * of the limiter or runs into its deadline.
+     */
+    AIMD,
+
+    /**
+     * Compares the short-term average latency with the long-term baseline. The limit shrinks in proportion
+     * to how much slower operations got than the baseline and grows by the square root of the limit while
+     * latency stays at the baseline, so it needs no fixed latency threshold.
+     */
+    GRADIENT
+}
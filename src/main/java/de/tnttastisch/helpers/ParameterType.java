@@ -0,0 +1,129 @@
+package de.tnttastisch.helpers;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * The declared type of a statement parameter. Every type binds its value with the matching
+ * type-specialized setter of the PreparedStatement, primitives are bound without boxing.
+ * @since = 2.1-RELEASE
+ */
+public enum ParameterType {
+
+    BOOLEAN(Types.BOOLEAN, Storage.INTEGRAL) {
+        @Override
+        void bind(PreparedStatement statement, int index, Parameters parameters, int slot) throws SQLException {
+            statement.setBoolean(index, parameters.longs[slot] != 0);
+        }
+    },
+    BYTE(Types.TINYINT, Storage.INTEGRAL) {
+        @Override
+        void bind(PreparedStatement statement, int index, Parameters parameters, int slot) throws SQLException {
+            statement.setByte(index, (byte) parameters.longs[slot]);
+        }
+    },
+    SHORT(Types.SMALLINT, Storage.INTEGRAL) {
+        @Override
+        void bind(PreparedStatement statement, int index, Parameters parameters, int slot) throws SQLException {
+            statement.setShort(index, (short) parameters.longs[slot]);
+        }
+    },
+    INT(Types.INTEGER, Storage.INTEGRAL) {
+        @Override
+        void bind(PreparedStatement statement, int index, Parameters parameters, int slot) throws SQLException {
+            statement.setInt(index, (int) parameters.longs[slot]);
+        }
+    },
+    LONG(Types.BIGINT, Storage.INTEGRAL) {
+        @Override
+        void bind(PreparedStatement statement, int index, Parameters parameters, int slot) throws SQLException {
+            statement.setLong(index, parameters.longs[slot]);
+        }
+    },
+    FLOAT(Types.REAL, Storage.FLOATING) {
+        @Override
+        void bind(PreparedStatement statement, int index, Parameters parameters, int slot) throws SQLException {
+            statement.setFloat(index, (float) parameters.doubles[slot]);
+        }
+    },
+    DOUBLE(Types.DOUBLE, Storage.FLOATING) {
+        @Override
+        void bind(PreparedStatement statement, int index, Parameters parameters, int slot) throws SQLException {
+            statement.setDouble(index, parameters.doubles[slot]);
+        }
+    },
+    DECIMAL(Types.DECIMAL, Storage.REFERENCE) {
+        @Override
+        void bind(PreparedStatement statement, int index, Parameters parameters, int slot) throws SQLException {
+            statement.setBigDecimal(index, (BigDecimal) parameters.objects[slot]);
+        }
+    },
+    STRING(Types.VARCHAR, Storage.REFERENCE) {
+        @Override
+        void bind(PreparedStatement statement, int index, Parameters parameters, int slot) throws SQLException {
+            statement.setString(index, (String) parameters.objects[slot]);
+        }
+    },
+    BYTES(Types.VARBINARY, Storage.REFERENCE) {
+        @Override
+        void bind(PreparedStatement statement, int index, Parameters parameters, int slot) throws SQLException {
+            statement.setBytes(index, (byte[]) parameters.objects[slot]);
+        }
+    },
+    DATE(Types.DATE, Storage.REFERENCE) {
+        @Override
+        void bind(PreparedStatement statement, int index, Parameters parameters, int slot) throws SQLException {
+            statement.setDate(index, (Date) parameters.objects[slot]);
+        }
+    },
+    TIME(Types.TIME, Storage.REFERENCE) {
+        @Override
+        void bind(PreparedStatement statement, int index, Parameters parameters, int slot) throws SQLException {
+            statement.setTime(index, (Time) parameters.objects[slot]);
+        }
+    },
+    TIMESTAMP(Types.TIMESTAMP, Storage.REFERENCE) {
+        @Override
+        void bind(PreparedStatement statement, int index, Parameters parameters, int slot) throws SQLException {
+            statement.setTimestamp(index, (Timestamp) parameters.objects[slot]);
+        }
+    },
+    OBJECT(Types.NULL, Storage.REFERENCE) {
+        @Override
+        void bind(PreparedStatement statement, int index, Parameters parameters, int slot) throws SQLException {
+            statement.setObject(index, parameters.objects[slot]);
+        }
+    };
+
+    private final int sqlType;
+    final Storage storage;
+
+    ParameterType(int sqlType, Storage storage) {
+        this.sqlType = sqlType;
+        this.storage = storage;
+    }
+
+    /**
+     * @return The JDBC type code from {@link Types} used when the parameter is bound to NULL.
+     */
+    public int getSqlType() {
+        return sqlType;
+    }
+
+    /**
+     * Binds the value of the given slot to the statement parameter.
+     */
+    abstract void bind(PreparedStatement statement, int index, Parameters parameters, int slot) throws SQLException;
+
+    /**
+     * The array of {@link Parameters} a type keeps its values in.
+     */
+    enum Storage {
+        INTEGRAL, FLOATING, REFERENCE
+    }
+}
@@ -0,0 +1,249 @@
+package de.tnttastisch.helpers;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+/**
+ * The values bound to one execution of a {@link StatementHandle}. Primitive values are kept in primitive
+ * arrays, so setting and binding them does not allocate. Parameters are addressed like in JDBC by their
+ * 1-based index and every setter checks the value against the declared {@link ParameterType}.
+ * <p>
+ * The values are read when the statement runs on the executor, so an instance must not be changed
+ * until the future of the operation it was passed to has completed. Afterwards it can be reused.
+ * @since = 2.1-RELEASE
+ */
+public final class Parameters {
+
+    private static final byte UNSET = 0;
+    private static final byte VALUE = 1;
+    private static final byte NULL = 2;
+
+    private final ParameterType[] types;
+    private final byte[] states;
+    final long[] longs;
+    final double[] doubles;
+    final Object[] objects;
+
+    Parameters(ParameterType[] types) {
+        this.types = types;
+        this.states = new byte[types.length];
+        this.longs = new long[types.length];
+        this.doubles = new double[types.length];
+        this.objects = new Object[types.length];
+    }
+
+    /**
+     * Sets a BOOLEAN parameter.
+     * @param index The 1-based parameter index.
+     * @param value The value.
+     * @return This instance, for chaining.
+     */
+    public Parameters setBoolean(int index, boolean value) {
+        this.longs[slot(index, ParameterType.Storage.INTEGRAL)] = value ? 1 : 0;
+        return this;
+    }
+
+    /**
+     * Sets a BOOLEAN, BYTE, SHORT, INT or LONG parameter.
+     * The value is narrowed to the declared type when it is bound.
+     * @param index The 1-based parameter index.
+     * @param value The value.
+     * @return This instance, for chaining.
+     */
+    public Parameters setInt(int index, int value) {
+        this.longs[slot(index, ParameterType.Storage.INTEGRAL)] = value;
+        return this;
+    }
+
+    /**
+     * Sets a BOOLEAN, BYTE, SHORT, INT or LONG parameter.
+     * The value is narrowed to the declared type when it is bound.
+     * @param index The 1-based parameter index.
+     * @param value The value.
+     * @return This instance, for chaining.
+     */
+    public Parameters setLong(int index, long value) {
+        this.longs[slot(index, ParameterType.Storage.INTEGRAL)] = value;
+        return this;
+    }
+
+    /**
+     * Sets a FLOAT or DOUBLE parameter.
+     * @param index The 1-based parameter index.
+     * @param value The value.
+     * @return This instance, for chaining.
+     */
+    public Parameters setDouble(int index, double value) {
+        this.doubles[slot(index, ParameterType.Storage.FLOATING)] = value;
+        return this;
+    }
+
+    /**
+     * Sets a STRING parameter.
+     * @param index The 1-based parameter index.
+     * @param value The value, null binds NULL.
+     * @return This instance, for chaining.
+     */
+    public Parameters setString(int index, String value) {
+        return setReference(index, ParameterType.STRING, value);
+    }
+
+    /**
+     * Sets a DECIMAL parameter.
+     * @param index The 1-based parameter index.
+     * @param value The value, null binds NULL.
+     * @return This instance, for chaining.
+     */
+    public Parameters setDecimal(int index, BigDecimal value) {
+        return setReference(index, ParameterType.DECIMAL, value);
+    }
+
+    /**
+     * Sets a BYTES parameter. The array is not copied.
+     * @param index The 1-based parameter index.
+     * @param value The value, null binds NULL.
+     * @return This instance, for chaining.
+     */
+    public Parameters setBytes(int index, byte[] value) {
+        return setReference(index, ParameterType.BYTES, value);
+    }
+
+    /**
+     * Sets a DATE parameter.
+     * @param index The 1-based parameter index.
+     * @param value The value, null binds NULL.
+     * @return This instance, for chaining.
+     */
+    public Parameters setDate(int index, Date value) {
+        return setReference(index, ParameterType.DATE, value);
+    }
+
+    /**
+     * Sets a TIME parameter.
+     * @param index The 1-based parameter index.
+     * @param value The value, null binds NULL.
+     * @return This instance, for chaining.
+     */
+    public Parameters setTime(int index, Time value) {
+        return setReference(index, ParameterType.TIME, value);
+    }
+
+    /**
+     * Sets a TIMESTAMP parameter.
+     * @param index The 1-based parameter index.
+     * @param value The value, null binds NULL.
+     * @return This instance, for chaining.
+     */
+    public Parameters setTimestamp(int index, Timestamp value) {
+        return setReference(index, ParameterType.TIMESTAMP, value);
+    }
+
+    /**
+     * Sets an OBJECT parameter, which is bound with {@link PreparedStatement#setObject(int, Object)}.
+     * @param index The 1-based parameter index.
+     * @param value The value, null binds NULL.
+     * @return This instance, for chaining.
+     */
+    public Parameters setObject(int index, Object value) {
+        return setReference(index, ParameterType.OBJECT, value);
+    }
+
+    /**
+     * Binds NULL to a parameter of any type.
+     * @param index The 1-based parameter index.
+     * @return This instance, for chaining.
+     */
+    public Parameters setNull(int index) {
+        int slot = index(index);
+        this.objects[slot] = null;
+        this.states[slot] = NULL;
+        return this;
+    }
+
+    /**
+     * Unsets all parameters.
+     */
+    public void clear() {
+        Arrays.fill(this.states, UNSET);
+        Arrays.fill(this.objects, null);
+    }
+
+    /**
+     * Binds all parameters to the statement with the setters of their declared types.
+     */
+    void bind(PreparedStatement statement) throws SQLException {
+        for (int slot = 0; slot < this.types.length; slot++) {
+            ParameterType type = this.types[slot];
+            switch (this.states[slot]) {
+                case VALUE:
+                    type.bind(statement, slot + 1, this, slot);
+                    break;
+                case NULL:
+                    statement.setNull(slot + 1, type.getSqlType());
+                    break;
+                default:
+                    throw new SQLException("Parameter " + (slot + 1) + " is not set");
+            }
+        }
+    }
+
+    /**
+     * Copies the current values, boxing primitives, for example to log them.
+     * @return The values in parameter order, null for unset and null parameters.
+     */
+    Object[] values() {
+        Object[] values = new Object[this.types.length];
+        for (int slot = 0; slot < this.types.length; slot++) {
+            if (this.states[slot] != VALUE) continue;
+            switch (this.types[slot].storage) {
+                case INTEGRAL:
+                    values[slot] = this.types[slot] == ParameterType.BOOLEAN ? (Object) (this.longs[slot] != 0) : (Object) this.longs[slot];
+                    break;
+                case FLOATING:
+                    values[slot] = this.doubles[slot];
+                    break;
+                default:
+                    values[slot] = this.objects[slot];
+            }
+        }
+        return values;
+    }
+
+    boolean belongsTo(ParameterType[] types) {
+        return this.types == types;
+    }
+
+    private Parameters setReference(int index, ParameterType type, Object value) {
+        int slot = index(index);
+        if (this.types[slot] != type && this.types[slot] != ParameterType.OBJECT) {
+            throw new IllegalArgumentException("Parameter " + index + " is declared as " + this.types[slot] + ", not " + type);
+        }
+        if (value == null) {
+            return setNull(index);
+        }
+        this.objects[slot] = value;
+        this.states[slot] = VALUE;
+        return this;
+    }
+
+    private int slot(int index, ParameterType.Storage storage) {
+        int slot = index(index);
+        if (this.types[slot].storage != storage) {
+            throw new IllegalArgumentException("Parameter " + index + " is declared as " + this.types[slot]);
+        }
+        this.states[slot] = VALUE;
+        return slot;
+    }
+
+    private int index(int index) {
+        if (index < 1 || index > this.types.length) {
+            throw new IndexOutOfBoundsException("Parameter index " + index + " is out of range 1.." + this.types.length);
+        }
+        return index - 1;
+    }
+}
@@ -0,0 +1,241 @@
+package de.tnttastisch.helpers;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Read-through cache of detached query results, keyed by SQL text and bound arguments.
+ * Entries are evicted least recently used once the estimated size exceeds the memory bound,
+ * and expire after the configured time to live. An update invalidates every entry that reads
+ * from a table the update writes to; if the written table cannot be determined, everything is invalidated.
+ * @since = 2.1-RELEASE
+ */
+public class QueryCache {
+
+    private static final Pattern READ_TABLES = Pattern.compile("\\b(?:FROM|JOIN)\\s+([`\"\\[]?[\\w.$]+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern WRITE_TABLE = Pattern.compile(
+            "^\\s*(?:INSERT\\s+(?:OR\\s+\\w+\\s+|IGNORE\\s+)?INTO|REPLACE\\s+INTO|UPDATE(?:\\s+OR\\s+\\w+|\\s+IGNORE)?|DELETE\\s+FROM"
+                    + "|TRUNCATE(?:\\s+TABLE)?|DROP\\s+TABLE(?:\\s+IF\\s+EXISTS)?|ALTER\\s+TABLE|CREATE\\s+TABLE(?:\\s+IF\\s+NOT\\s+EXISTS)?)"
+                    + "\\s+([`\"\\[]?[\\w.$]+)", Pattern.CASE_INSENSITIVE);
+
+    private final long maximumSize;
+    private final long timeToLive;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75F, true);
+    private final Map<String, Set<Key>> tables = new HashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long size;
+
+    /**
+     * Creates a query cache.
+     * @param maximumSize The maximum estimated size of all cached rows in bytes.
+     * @param timeToLive  The time in milliseconds an entry stays valid.
+     */
+    public QueryCache(long maximumSize, long timeToLive) {
+        if (maximumSize <= 0 || timeToLive <= 0) throw new IllegalArgumentException("The size and time to live must be positive");
+        this.maximumSize = maximumSize;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Looks up a cached result.
+     * @param sql The SQL text.
+     * @param arguments The bound arguments.
+     * @return The cached rows, or null if there is no valid entry.
+     */
+    public List<Row> get(String sql, Object[] arguments) {
+        Key key = new Key(sql, arguments);
+        synchronized (this) {
+            Entry entry = this.entries.get(key);
+            if (entry != null && entry.expiresAt - System.currentTimeMillis() > 0) {
+                this.hits.increment();
+                return entry.rows;
+            }
+            if (entry != null) {
+                remove(key);
+                this.evictions.increment();
+            }
+        }
+        this.misses.increment();
+        return null;
+    }
+
+    /**
+     * @return The current invalidation generation, to be passed to {@link #put(String, Object[], List, long)}.
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Stores a result, unless an invalidation happened since the given generation was read,
+     * in which case the result may already be stale.
+     * @param sql The SQL text.
+     * @param arguments The bound arguments.
+     * @param rows The detached rows.
+     * @param generation The generation read before the query was executed.
+     */
+    public void put(String sql, Object[] arguments, List<Row> rows, long generation) {
+        long weight = 64 + 2L * sql.length();
+        for (Row row : rows) {
+            weight += row.estimateSize();
+        }
+        if (weight > this.maximumSize) return;
+        Key key = new Key(sql, arguments);
+        Set<String> read = readTables(sql);
+        synchronized (this) {
+            if (this.generation.get() != generation) return;
+            remove(key);
+            this.entries.put(key, new Entry(Collections.unmodifiableList(rows), read, weight, System.currentTimeMillis() + this.timeToLive));
+            for (String table : read) {
+                this.tables.computeIfAbsent(table, name -> new HashSet<>()).add(key);
+            }
+            this.size += weight;
+            Iterator<Map.Entry<Key, Entry>> iterator = this.entries.entrySet().iterator();
+            while (this.size > this.maximumSize && iterator.hasNext()) {
+                Map.Entry<Key, Entry> eldest = iterator.next();
+                iterator.remove();
+                unlink(eldest.getKey(), eldest.getValue());
+                this.evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Invalidates every entry reading from the tables written by the given statement.
+     * @param update The SQL text of the update.
+     */
+    public void invalidate(String update) {
+        Matcher matcher = WRITE_TABLE.matcher(update);
+        if (!matcher.find()) {
+            invalidateAll();
+            return;
+        }
+        Set<String> written = readTables(update);
+        written.add(normalize(matcher.group(1)));
+        synchronized (this) {
+            this.generation.incrementAndGet();
+            for (String table : written) {
+                Set<Key> keys = this.tables.get(table);
+                if (keys == null) continue;
+                for (Key key : new ArrayList<>(keys)) {
+                    remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes every entry.
+     */
+    public synchronized void invalidateAll() {
+        this.generation.incrementAndGet();
+        this.entries.clear();
+        this.tables.clear();
+        this.size = 0;
+    }
+
+    /**
+     * @return The number of lookups served from the cache.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of lookups which had to query the database.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of entries dropped because of the memory bound or their time to live.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return The estimated size of all cached rows in bytes.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    private void remove(Key key) {
+        Entry entry = this.entries.remove(key);
+        if (entry != null) {
+            unlink(key, entry);
+        }
+    }
+
+    private void unlink(Key key, Entry entry) {
+        this.size -= entry.weight;
+        for (String table : entry.tables) {
+            Set<Key> keys = this.tables.get(table);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                this.tables.remove(table);
+            }
+        }
+    }
+
+    private static Set<String> readTables(String sql) {
+        Set<String> tables = new HashSet<>();
+        Matcher matcher = READ_TABLES.matcher(sql);
+        while (matcher.find()) {
+            tables.add(normalize(matcher.group(1)));
+        }
+        return tables;
+    }
+
+    private static String normalize(String table) {
+        String name = table.replaceAll("[`\"\\[\\]]", "");
+        int schema = name.lastIndexOf('.');
+        return (schema >= 0 ? name.substring(schema + 1) : name).toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Key {
+        private final String sql;
+        private final Object[] arguments;
+        private final int hash;
+
+        private Key(String sql, Object[] arguments) {
+            this.sql = sql;
+            this.arguments = arguments.clone();
+            this.hash = 31 * sql.hashCode() + Arrays.deepHashCode(this.arguments);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) return true;
+            if (!(other instanceof Key)) return false;
+            Key key = (Key) other;
+            return this.hash == key.hash && this.sql.equals(key.sql) && Arrays.deepEquals(this.arguments, key.arguments);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        private final List<Row> rows;
+        private final Set<String> tables;
+        private final long weight;
+        private final long expiresAt;
+
+        private Entry(List<Row> rows, Set<String> tables, long weight, long expiresAt) {
+            this.rows = rows;
+            this.tables = tables;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
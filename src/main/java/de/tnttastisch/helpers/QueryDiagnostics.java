@@ -0,0 +1,170 @@
+package de.tnttastisch.helpers;
+
+import de.tnttastisch.metrics.SqlFingerprint;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The opt-in diagnostics of a {@link DatabaseCommand}, set with {@link DatabaseCommand#setDiagnostics(QueryDiagnostics)}.
+ * <ul>
+ *     <li>Statements slower than the threshold are logged with their bound parameters as a warning,
+ *     together with their execution plan, captured with {@code EXPLAIN QUERY PLAN} on SQLite and
+ *     {@code EXPLAIN} on MySQL.</li>
+ *     <li>The same statement fingerprint submitted many times within a short window from the same
+ *     call site is logged as a likely N+1 access pattern, which should be one query or a batch instead.</li>
+ * </ul>
+ * Finding the call site walks the stack of every submitted statement, so diagnostics are meant for
+ * development and troubleshooting rather than to stay enabled under full load.
+ * @since = 2.1-RELEASE
+ */
+public class QueryDiagnostics {
+
+    private static final int MAX_TRACKED = 4096;
+
+    private final Map<String, Long> plans = new ConcurrentHashMap<>();
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+    private volatile long slowThreshold;
+    private volatile IParameterRedactor redactor;
+    private volatile boolean capturePlans = true;
+    private volatile long planInterval = TimeUnit.MINUTES.toNanos(1);
+    private volatile int repeatThreshold = 20;
+    private volatile long repeatWindow = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Creates the diagnostics.
+     * @param slowThreshold The time in milliseconds after which a statement is logged as slow.
+     */
+    public QueryDiagnostics(long slowThreshold) {
+        setSlowThreshold(slowThreshold);
+    }
+
+    /**
+     * Sets the time after which a statement is logged as slow. The time is measured like the statement
+     * timings of the metrics listener, from leasing the connection until the statement finished.
+     * @param slowThreshold The threshold in milliseconds.
+     */
+    public void setSlowThreshold(long slowThreshold) {
+        if (slowThreshold < 0) throw new IllegalArgumentException("The slow threshold must not be negative");
+        this.slowThreshold = TimeUnit.MILLISECONDS.toNanos(slowThreshold);
+    }
+
+    /**
+     * Sets the redactor masking sensitive parameter values. While a redactor is set, the fingerprint of the
+     * statement is logged instead of its SQL text, so literals written into the SQL text are masked as well.
+     * @param redactor The redactor, for example {@link IParameterRedactor#ALL}, or null to log all values.
+     */
+    public void setRedactor(IParameterRedactor redactor) {
+        this.redactor = redactor;
+    }
+
+    /**
+     * Sets whether and how often execution plans of slow statements are captured. The plan runs as a separate
+     * query after the slow statement finished, at most once per interval for every statement fingerprint.
+     * Batches and transactions are logged without a plan.
+     * @param capturePlans Whether plans should be captured.
+     * @param planInterval The minimum time in milliseconds between two plans of the same fingerprint.
+     */
+    public void setPlanCapture(boolean capturePlans, long planInterval) {
+        if (planInterval < 0) throw new IllegalArgumentException("The plan interval must not be negative");
+        this.capturePlans = capturePlans;
+        this.planInterval = TimeUnit.MILLISECONDS.toNanos(planInterval);
+    }
+
+    /**
+     * Sets when repeated statements are logged as an N+1 pattern.
+     * @param threshold The number of submissions of the same fingerprint from the same call site, 0 disables the detection.
+     * @param window    The time window in milliseconds the submissions are counted in.
+     */
+    public void setRepeatDetection(int threshold, long window) {
+        if (threshold < 0) throw new IllegalArgumentException("The repeat threshold must not be negative");
+        if (window <= 0) throw new IllegalArgumentException("The repeat window must be positive");
+        this.repeatThreshold = threshold;
+        this.repeatWindow = TimeUnit.MILLISECONDS.toNanos(window);
+    }
+
+    boolean isSlow(long latency) {
+        return latency >= this.slowThreshold;
+    }
+
+    boolean isRepeatDetection() {
+        return this.repeatThreshold > 0;
+    }
+
+    long getRepeatWindow() {
+        return TimeUnit.NANOSECONDS.toMillis(this.repeatWindow);
+    }
+
+    /**
+     * Decides whether the plan of a slow statement should be captured, at most once per interval and fingerprint.
+     */
+    boolean shouldCapturePlan(String fingerprint) {
+        if (!this.capturePlans) return false;
+        long now = System.nanoTime();
+        Long last = this.plans.get(fingerprint);
+        if (last != null && now - last < this.planInterval) return false;
+        if (this.plans.size() >= MAX_TRACKED) {
+            this.plans.clear();
+        }
+        return last == null ? this.plans.putIfAbsent(fingerprint, now) == null : this.plans.replace(fingerprint, last, now);
+    }
+
+    /**
+     * Formats a statement with its parameters for the log, applying the redactor.
+     */
+    String describe(String sql, Object[] parameters) {
+        IParameterRedactor redactor = this.redactor;
+        StringBuilder builder = new StringBuilder(redactor == null ? sql : SqlFingerprint.of(sql));
+        if (parameters == null || parameters.length == 0) return builder.toString();
+        builder.append(" with parameters [");
+        for (int i = 0; i < parameters.length; i++) {
+            if (i > 0) builder.append(", ");
+            Object value = redactor == null ? parameters[i] : redactor.redact(sql, i + 1, parameters[i]);
+            builder.append(value instanceof byte[] ? "<" + ((byte[]) value).length + " bytes>" : String.valueOf(value));
+        }
+        return builder.append(']').toString();
+    }
+
+    /**
+     * Counts a submission of a statement.
+     * @return The number of submissions within the current window once it reaches the threshold for the first time, otherwise 0.
+     */
+    int recordSubmission(String fingerprint, String callSite) {
+        int threshold = this.repeatThreshold;
+        if (threshold <= 0) return 0;
+        long now = System.nanoTime();
+        if (this.windows.size() >= MAX_TRACKED) {
+            evict(now);
+        }
+        Window window = this.windows.computeIfAbsent(fingerprint + '@' + callSite, key -> new Window(now));
+        synchronized (window) {
+            if (now - window.start > this.repeatWindow) {
+                window.start = now;
+                window.count = 0;
+            }
+            return ++window.count == threshold ? threshold : 0;
+        }
+    }
+
+    private void evict(long now) {
+        for (Iterator<Window> iterator = this.windows.values().iterator(); iterator.hasNext(); ) {
+            Window window = iterator.next();
+            synchronized (window) {
+                if (now - window.start > this.repeatWindow) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private static final class Window {
+        private long start;
+        private int count;
+
+        private Window(long start) {
+            this.start = start;
+        }
+    }
+}
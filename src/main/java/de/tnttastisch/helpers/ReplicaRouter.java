@@ -0,0 +1,201 @@
+package de.tnttastisch.helpers;
+
+import com.zaxxer.hikari.pool.HikariPool;
+import org.slf4j.Logger;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads queries across the connection pools of read replicas. Replicas which repeatedly fail to hand out
+ * a working connection are ejected for a cooldown period, after which a single successful query brings
+ * them back. Without a healthy replica queries fall back to the primary.
+ * @since = 2.1-RELEASE
+ */
+public class ReplicaRouter {
+
+    private final Logger logger;
+    private final List<Replica> replicas;
+    private final ReplicaSelection selection;
+    private final AtomicLong counter = new AtomicLong();
+    private volatile int failureThreshold = 3;
+    private volatile long cooldown = TimeUnit.SECONDS.toNanos(30);
+
+    /**
+     * Creates a router over the given replica pools.
+     * @param logger    The logger instance to log ejections.
+     * @param pools     The connection pools of the replicas, may be empty to send all queries to the primary.
+     * @param weights   The weight of every replica in the order of the pools, or null for equal weights.
+     * @param selection How a replica is picked for a query.
+     */
+    public ReplicaRouter(Logger logger, List<HikariPool> pools, int[] weights, ReplicaSelection selection) {
+        if (weights != null && weights.length != pools.size()) {
+            throw new IllegalArgumentException("Every replica needs a weight");
+        }
+        List<Replica> replicas = new ArrayList<>(pools.size());
+        for (int i = 0; i < pools.size(); i++) {
+            int weight = weights == null ? 1 : weights[i];
+            if (weight <= 0) throw new IllegalArgumentException("The replica weight must be positive");
+            replicas.add(new Replica(i, pools.get(i), weight));
+        }
+        this.logger = logger;
+        this.replicas = Collections.unmodifiableList(replicas);
+        this.selection = selection;
+    }
+
+    /**
+     * Picks the replica for the next query and counts the query as outstanding on it.
+     * Every replica obtained here must be handed back with {@link #release(Replica, SQLException)}.
+     * @return The replica, or null if there is no healthy replica and the primary should be used.
+     */
+    public Replica acquire() {
+        if (this.replicas.isEmpty()) return null;
+        long now = System.nanoTime();
+        Replica replica = this.selection == ReplicaSelection.WEIGHTED_ROUND_ROBIN ? nextWeighted(now) : leastOutstanding(now);
+        if (replica != null) {
+            replica.outstanding.incrementAndGet();
+        }
+        return replica;
+    }
+
+    /**
+     * Hands a replica back after the query finished. Connection failures count towards its ejection,
+     * any other outcome marks it healthy again.
+     * @param replica The replica obtained from {@link #acquire()}, may be null.
+     * @param error   The error the query failed with, or null if it succeeded.
+     */
+    public void release(Replica replica, SQLException error) {
+        if (replica == null) return;
+        replica.outstanding.decrementAndGet();
+        if (error == null || !isConnectionFailure(error)) {
+            replica.failures.set(0);
+            return;
+        }
+        if (replica.failures.incrementAndGet() >= this.failureThreshold) {
+            replica.ejectedUntil = System.nanoTime() + this.cooldown;
+            this.logger.warn("Ejected replica " + replica.getIndex() + " after " + replica.failures.get() + " connection failures", error);
+        }
+    }
+
+    /**
+     * @return The replicas, in the order they were configured.
+     */
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Sets after how many consecutive connection failures a replica is ejected and for how long.
+     * @param failureThreshold The number of consecutive failures, must be positive.
+     * @param cooldown         The time in milliseconds an ejected replica receives no queries.
+     */
+    public void setEjection(int failureThreshold, long cooldown) {
+        if (failureThreshold <= 0) throw new IllegalArgumentException("The failure threshold must be positive");
+        if (cooldown < 0) throw new IllegalArgumentException("The cooldown must not be negative");
+        this.failureThreshold = failureThreshold;
+        this.cooldown = TimeUnit.MILLISECONDS.toNanos(cooldown);
+    }
+
+    private Replica leastOutstanding(long now) {
+        int size = this.replicas.size();
+        int start = (int) Math.floorMod(this.counter.getAndIncrement(), (long) size);
+        Replica best = null;
+        long bestLoad = 0;
+        for (int i = 0; i < size; i++) {
+            Replica replica = this.replicas.get((start + i) % size);
+            if (replica.isEjected(now)) continue;
+            long load = replica.outstanding.get() + 1L;
+            // compares load / weight of both replicas without floating point
+            if (best == null || load * best.weight < bestLoad * replica.weight) {
+                best = replica;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+
+    private Replica nextWeighted(long now) {
+        int total = 0;
+        for (Replica replica : this.replicas) {
+            if (!replica.isEjected(now)) total += replica.weight;
+        }
+        if (total == 0) return null;
+        long position = Math.floorMod(this.counter.getAndIncrement(), (long) total);
+        for (Replica replica : this.replicas) {
+            if (replica.isEjected(now)) continue;
+            position -= replica.weight;
+            if (position < 0) return replica;
+        }
+        return null;
+    }
+
+    private static boolean isConnectionFailure(SQLException error) {
+        if (error instanceof SQLTransientConnectionException) return true;
+        String state = error.getSQLState();
+        return state != null && state.startsWith("08");
+    }
+
+    /**
+     * A read replica with its connection pool and health state.
+     */
+    public static final class Replica {
+        private final int index;
+        private final HikariPool pool;
+        private final int weight;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile long ejectedUntil;
+
+        private Replica(int index, HikariPool pool, int weight) {
+            this.index = index;
+            this.pool = pool;
+            this.weight = weight;
+            this.ejectedUntil = System.nanoTime();
+        }
+
+        /**
+         * @return The position of the replica in the configuration.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return The connection pool of the replica.
+         */
+        public HikariPool getPool() {
+            return pool;
+        }
+
+        /**
+         * @return The weight of the replica.
+         */
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * @return The number of queries currently running on the replica.
+         */
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * @return Whether the replica is currently ejected.
+         */
+        public boolean isEjected() {
+            return isEjected(System.nanoTime());
+        }
+
+        private boolean isEjected(long now) {
+            return now - this.ejectedUntil < 0;
+        }
+    }
+}
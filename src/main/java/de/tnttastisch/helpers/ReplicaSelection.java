@@ -0,0 +1,18 @@
+package de.tnttastisch.helpers;
+
+/**
+ * How a {@link ReplicaRouter} picks the replica for a query.
+ * @since = 2.1-RELEASE
+ */
+public enum ReplicaSelection {
+
+    /**
+     * Picks the replica with the fewest running queries relative to its weight.
+     */
+    LEAST_OUTSTANDING,
+
+    /**
+     * Cycles through the replicas, each one receiving a share of the queries proportional to its weight.
+     */
+    WEIGHTED_ROUND_ROBIN
+}
@@ -0,0 +1,90 @@
+package de.tnttastisch.helpers;
+
+import org.slf4j.Logger;
+
+import java.sql.*;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Lazily walks an open ResultSet and releases its statement and connection once the rows are exhausted,
+ * a row fails to map or the surrounding stream is closed.
+ * @since = 2.1-RELEASE
+ */
+class ResultSetSpliterator<T> extends Spliterators.AbstractSpliterator<T> implements AutoCloseable {
+
+    private final Connection connection;
+    private final StatementCache statements;
+    private final String sql;
+    private final PreparedStatement statement;
+    private final ResultSet result;
+    private final RowMapper<T> mapper;
+    private final Logger logger;
+    private final LongConsumer onClose;
+    private long rows;
+    private boolean closed;
+
+    ResultSetSpliterator(Connection connection, StatementCache statements, String sql, PreparedStatement statement, ResultSet result, RowMapper<T> mapper, Logger logger, LongConsumer onClose) {
+        super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+        this.connection = connection;
+        this.statements = statements;
+        this.sql = sql;
+        this.statement = statement;
+        this.result = result;
+        this.mapper = mapper;
+        this.logger = logger;
+        this.onClose = onClose;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        if (this.closed) return false;
+        try {
+            if (!this.result.next()) {
+                close();
+                return false;
+            }
+            action.accept(this.mapper.map(this.result));
+            this.rows++;
+            return true;
+        } catch (SQLException e) {
+            close();
+            throw new IllegalStateException("A Sql error occurred while streaming a query", e);
+        }
+    }
+
+    /**
+     * @return A sequential stream over the remaining rows which releases all resources when closed.
+     */
+    Stream<T> stream() {
+        return StreamSupport.stream(this, false).onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        if (this.closed) return;
+        this.closed = true;
+        try {
+            try {
+                if (this.result != null) {
+                    this.result.close();
+                }
+            } finally {
+                try {
+                    this.statements.release(this.sql, this.statement);
+                } finally {
+                    if (this.connection != null) {
+                        this.connection.close();
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            this.logger.error("A Sql error occurred while closing a streamed query: ", e);
+        }
+        this.onClose.accept(this.rows);
+    }
+}
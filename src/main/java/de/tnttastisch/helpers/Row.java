@@ -0,0 +1,200 @@
+package de.tnttastisch.helpers;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A row copied out of a ResultSet, which stays usable after its connection went back to the pool.
+ * Columns are addressed like in JDBC, either by their 1-based index or by their label.
+ * @since = 2.1-RELEASE
+ */
+public final class Row {
+
+    private final Map<String, Integer> columns;
+    private final Object[] values;
+
+    private Row(Map<String, Integer> columns, Object[] values) {
+        this.columns = columns;
+        this.values = values;
+    }
+
+    /**
+     * Creates the row mapper copying every row. The column index is shared by all rows of one result.
+     * @return A mapper producing detached rows.
+     */
+    public static RowMapper<Row> mapper() {
+        return new RowMapper<Row>() {
+            private Map<String, Integer> columns;
+
+            @Override
+            public Row map(ResultSet result) throws SQLException {
+                ResultSetMetaData metaData = result.getMetaData();
+                int columnCount = metaData.getColumnCount();
+                if (this.columns == null) {
+                    Map<String, Integer> columns = new HashMap<>();
+                    for (int i = columnCount; i >= 1; i--) {
+                        columns.put(metaData.getColumnLabel(i).toLowerCase(Locale.ROOT), i);
+                    }
+                    this.columns = columns;
+                }
+                Object[] values = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    values[i] = result.getObject(i + 1);
+                }
+                return new Row(this.columns, values);
+            }
+        };
+    }
+
+    /**
+     * @return The number of columns.
+     */
+    public int getColumnCount() {
+        return values.length;
+    }
+
+    /**
+     * @param column The 1-based column index.
+     * @return The value of the column, may be null.
+     */
+    public Object getObject(int column) {
+        return values[column - 1];
+    }
+
+    /**
+     * @param label The column label, compared case-insensitively.
+     * @return The value of the column, may be null.
+     */
+    public Object getObject(String label) {
+        Integer column = columns.get(label.toLowerCase(Locale.ROOT));
+        if (column == null) throw new IllegalArgumentException("There is no column " + label);
+        return getObject(column);
+    }
+
+    /**
+     * @param column The 1-based column index.
+     * @return The value of the column as string, may be null.
+     */
+    public String getString(int column) {
+        Object value = getObject(column);
+        return value == null ? null : String.valueOf(value);
+    }
+
+    /**
+     * @param label The column label, compared case-insensitively.
+     * @return The value of the column as string, may be null.
+     */
+    public String getString(String label) {
+        Object value = getObject(label);
+        return value == null ? null : String.valueOf(value);
+    }
+
+    /**
+     * @param column The 1-based column index.
+     * @return The numeric value of the column, 0 for null like {@link ResultSet#getInt(int)}.
+     */
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    /**
+     * @param label The column label, compared case-insensitively.
+     * @return The numeric value of the column, 0 for null like {@link ResultSet#getInt(String)}.
+     */
+    public int getInt(String label) {
+        return (int) getLong(label);
+    }
+
+    /**
+     * @param column The 1-based column index.
+     * @return The numeric value of the column, 0 for null like {@link ResultSet#getLong(int)}.
+     */
+    public long getLong(int column) {
+        return toNumber(getObject(column)).longValue();
+    }
+
+    /**
+     * @param label The column label, compared case-insensitively.
+     * @return The numeric value of the column, 0 for null like {@link ResultSet#getLong(String)}.
+     */
+    public long getLong(String label) {
+        return toNumber(getObject(label)).longValue();
+    }
+
+    /**
+     * @param column The 1-based column index.
+     * @return The numeric value of the column, 0 for null like {@link ResultSet#getDouble(int)}.
+     */
+    public double getDouble(int column) {
+        return toNumber(getObject(column)).doubleValue();
+    }
+
+    /**
+     * @param label The column label, compared case-insensitively.
+     * @return The numeric value of the column, 0 for null like {@link ResultSet#getDouble(String)}.
+     */
+    public double getDouble(String label) {
+        return toNumber(getObject(label)).doubleValue();
+    }
+
+    /**
+     * @param column The 1-based column index.
+     * @return The boolean value of the column, false for null like {@link ResultSet#getBoolean(int)}.
+     */
+    public boolean getBoolean(int column) {
+        return toBoolean(getObject(column));
+    }
+
+    /**
+     * @param label The column label, compared case-insensitively.
+     * @return The boolean value of the column, false for null like {@link ResultSet#getBoolean(String)}.
+     */
+    public boolean getBoolean(String label) {
+        return toBoolean(getObject(label));
+    }
+
+    /**
+     * Estimates the heap size of the row in bytes, used to bound the memory of caches.
+     * @return The estimated size in bytes.
+     */
+    long estimateSize() {
+        long size = 16 + 16 + 4L * values.length;
+        for (Object value : values) {
+            if (value == null) continue;
+            if (value instanceof String) {
+                size += 40 + 2L * ((String) value).length();
+            } else if (value instanceof byte[]) {
+                size += 16 + ((byte[]) value).length;
+            } else {
+                size += 24;
+            }
+        }
+        return size;
+    }
+
+    private Number toNumber(Object value) {
+        if (value == null) return 0;
+        if (value instanceof Number) return (Number) value;
+        if (value instanceof Boolean) return ((Boolean) value) ? 1 : 0;
+        return new BigDecimal(String.valueOf(value).trim());
+    }
+
+    private boolean toBoolean(Object value) {
+        if (value == null) return false;
+        if (value instanceof Boolean) return (Boolean) value;
+        if (value instanceof Number) return ((Number) value).doubleValue() != 0;
+        String string = String.valueOf(value);
+        return string.equalsIgnoreCase("true") || string.equals("1");
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(values);
+    }
+}
@@ -0,0 +1,21 @@
+package de.tnttastisch.helpers;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maps the row a ResultSet is currently positioned on to an object.
+ * @param <T> The type of the mapped row.
+ * @since = 2.1-RELEASE
+ */
+@FunctionalInterface
+public interface RowMapper<T> {
+
+    /**
+     * Maps the current row of the given result set. Implementations must not move the cursor.
+     * @param result The result set positioned on the row to map.
+     * @return The mapped row.
+     * @throws SQLException If a database access error occurs.
+     */
+    T map(ResultSet result) throws SQLException;
+}
@@ -0,0 +1,237 @@
+package de.tnttastisch.helpers;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Spreads data across several named databases by a shard key. Keys are placed on a consistent hash ring,
+ * where every shard owns a number of virtual nodes, so adding or removing a shard only moves the keys
+ * of its neighbours on the ring instead of reshuffling all of them.
+ * <p>
+ * Keys are hashed by their string form, so {@code 42} and {@code "42"} always map to the same shard.
+ * @since = 2.1-RELEASE
+ */
+public class ShardRouter {
+
+    private final int virtualNodes;
+    private final Map<String, ConnectionAuthenticator> shards = new LinkedHashMap<>();
+    private volatile NavigableMap<Long, Map.Entry<String, ConnectionAuthenticator>> ring = new TreeMap<>();
+
+    /**
+     * Creates an empty shard router.
+     * @param virtualNodes The number of points every shard owns on the hash ring, more points spread keys more evenly.
+     */
+    public ShardRouter(int virtualNodes) {
+        if (virtualNodes <= 0) throw new IllegalArgumentException("The number of virtual nodes must be positive");
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * Creates an empty shard router with 160 virtual nodes per shard.
+     */
+    public ShardRouter() {
+        this(160);
+    }
+
+    /**
+     * Adds a shard to the ring. Keys which now hash to the new shard are not moved by the router.
+     * @param name       The unique name of the shard, which determines its position on the ring.
+     * @param connection The connection of the shard.
+     */
+    public synchronized void addShard(String name, ConnectionAuthenticator connection) {
+        if (this.shards.containsKey(name)) throw new IllegalArgumentException("There is already a shard named " + name);
+        this.shards.put(name, connection);
+        rebuild();
+    }
+
+    /**
+     * Removes a shard from the ring without shutting down its connection.
+     * @param name The name of the shard.
+     * @return The connection of the removed shard, or null if there is no shard with this name.
+     */
+    public synchronized ConnectionAuthenticator removeShard(String name) {
+        ConnectionAuthenticator connection = this.shards.remove(name);
+        if (connection != null) {
+            rebuild();
+        }
+        return connection;
+    }
+
+    /**
+     * Gets the name of the shard owning the given key.
+     * @param shardKey The shard key.
+     * @return The name of the shard.
+     */
+    public String getShard(Object shardKey) {
+        return locate(shardKey).getKey();
+    }
+
+    /**
+     * Gets the command of the shard owning the given key.
+     * @param shardKey The shard key.
+     * @return The command running operations on the shard.
+     */
+    public DatabaseCommand getCommand(Object shardKey) {
+        return locate(shardKey).getValue().getCommand();
+    }
+
+    /**
+     * @return The connections of all shards by their name, in the order they were added.
+     */
+    public synchronized Map<String, ConnectionAuthenticator> getShards() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(this.shards));
+    }
+
+    /**
+     * Executes a SQL query asynchronously on the shard owning the key and copies all rows into detached rows.
+     * @param shardKey The shard key.
+     * @param query The SQL query to execute.
+     * @param arguments The arguments to be set in the prepared statement.
+     * @return A CompletableFuture containing the detached rows.
+     */
+    public CompletableFuture<List<Row>> queryRows(Object shardKey, String query, Object... arguments) {
+        return getCommand(shardKey).queryRows(query, arguments);
+    }
+
+    /**
+     * Executes a SQL query asynchronously on the shard owning the key and hands every mapped row to the consumer.
+     * @param shardKey The shard key.
+     * @param query The SQL query to execute.
+     * @param mapper The mapper converting the current row.
+     * @param consumer The consumer receiving every mapped row.
+     * @param arguments The arguments to be set in the prepared statement.
+     * @return A CompletableFuture containing the number of consumed rows.
+     */
+    public <T> CompletableFuture<Long> forEach(Object shardKey, String query, RowMapper<T> mapper, Consumer<? super T> consumer, Object... arguments) {
+        return getCommand(shardKey).forEach(query, mapper, consumer, arguments);
+    }
+
+    /**
+     * Executes a SQL query asynchronously on the shard owning the key and returns a lazy stream over the mapped rows.
+     * @param shardKey The shard key.
+     * @param query The SQL query to execute.
+     * @param mapper The mapper converting the current row.
+     * @param arguments The arguments to be set in the prepared statement.
+     * @return A CompletableFuture containing the stream of mapped rows.
+     */
+    public <T> CompletableFuture<Stream<T>> stream(Object shardKey, String query, RowMapper<T> mapper, Object... arguments) {
+        return getCommand(shardKey).stream(query, mapper, arguments);
+    }
+
+    /**
+     * Executes a SQL update asynchronously on the shard owning the key.
+     * @param shardKey The shard key.
+     * @param update The SQL update statement to execute.
+     * @param arguments The arguments to be set in the prepared statement.
+     * @return A CompletableFuture representing the completion of the update operation.
+     */
+    public CompletableFuture<Void> update(Object shardKey, String update, Object... arguments) {
+        return getCommand(shardKey).update(update, arguments);
+    }
+
+    /**
+     * Executes a large SQL update asynchronously on the shard owning the key.
+     * @param shardKey The shard key.
+     * @param update The SQL update statement to execute.
+     * @param arguments The arguments to be set in the prepared statement.
+     * @return A CompletableFuture representing the completion of the large update operation.
+     */
+    public CompletableFuture<Void> largeUpdate(Object shardKey, String update, Object... arguments) {
+        return getCommand(shardKey).largeUpdate(update, arguments);
+    }
+
+    /**
+     * Executes the same SQL update for every argument row as JDBC batches on the shard owning the key.
+     * All rows must belong to that shard.
+     * @param shardKey The shard key.
+     * @param update The SQL update statement to execute.
+     * @param arguments The argument rows, one array per execution of the statement.
+     * @return A CompletableFuture containing the update count of every row, in the order of the argument rows.
+     */
+    public CompletableFuture<int[]> batch(Object shardKey, String update, Collection<Object[]> arguments) {
+        return getCommand(shardKey).batch(update, arguments);
+    }
+
+    /**
+     * Runs a unit of work asynchronously inside one transaction on the shard owning the key.
+     * @param shardKey The shard key.
+     * @param function The statements of the unit of work.
+     * @return A CompletableFuture containing the result of the function.
+     */
+    public <T> CompletableFuture<T> transaction(Object shardKey, TransactionFunction<T> function) {
+        return getCommand(shardKey).transaction(function);
+    }
+
+    /**
+     * Executes a SQL update asynchronously on every shard, for example to create a table.
+     * @param update The SQL update statement to execute.
+     * @param arguments The arguments to be set in the prepared statement.
+     * @return A CompletableFuture completing once the update finished on all shards.
+     */
+    public CompletableFuture<Void> updateAll(String update, Object... arguments) {
+        Collection<ConnectionAuthenticator> connections = getShards().values();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[connections.size()];
+        int i = 0;
+        for (ConnectionAuthenticator connection : connections) {
+            futures[i++] = connection.getCommand().update(update, arguments);
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * Shuts down the connections of all shards.
+     * @throws SQLException If a database access error occurs.
+     * @throws InterruptedException If a thread is interrupted while waiting.
+     */
+    public void shutdown() throws SQLException, InterruptedException {
+        for (ConnectionAuthenticator connection : getShards().values()) {
+            connection.shutdown();
+        }
+    }
+
+    private Map.Entry<String, ConnectionAuthenticator> locate(Object shardKey) {
+        NavigableMap<Long, Map.Entry<String, ConnectionAuthenticator>> ring = this.ring;
+        if (ring.isEmpty()) throw new IllegalStateException("There are no shards to route to");
+        Map.Entry<Long, Map.Entry<String, ConnectionAuthenticator>> point = ring.ceilingEntry(hash(String.valueOf(shardKey)));
+        return (point == null ? ring.firstEntry() : point).getValue();
+    }
+
+    private void rebuild() {
+        NavigableMap<Long, Map.Entry<String, ConnectionAuthenticator>> ring = new TreeMap<>();
+        for (Map.Entry<String, ConnectionAuthenticator> shard : this.shards.entrySet()) {
+            Map.Entry<String, ConnectionAuthenticator> entry = new AbstractMap.SimpleImmutableEntry<>(shard);
+            for (int i = 0; i < this.virtualNodes; i++) {
+                ring.putIfAbsent(hash(shard.getKey() + "#" + i), entry);
+            }
+        }
+        this.ring = ring;
+    }
+
+    /**
+     * 64 bit FNV-1a over the UTF-8 bytes, followed by the MurmurHash3 finalizer to spread similar keys.
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,179 @@
+package de.tnttastisch.helpers;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps prepared statements open across leases of the same physical connection, so hot SQL texts are
+ * only parsed once per connection. Every physical connection owns an LRU of idle statements keyed by
+ * SQL text. A statement is taken out of the LRU while it is in use and put back on release.
+ * <p>
+ * Statements are prepared on the physical connection behind the pool proxy, otherwise the pool would
+ * close them whenever the connection is handed back. As a consequence the pool does not track them: it
+ * neither sees that they changed the transaction state nor rolls an open transaction back when the
+ * connection is handed back. Callers turning auto-commit off must commit or roll back explicitly and
+ * must not hand back a connection whose transaction is still open.
+ * @since = 2.1-RELEASE
+ */
+public class StatementCache {
+
+    private final Map<Connection, LinkedHashMap<String, PreparedStatement>> connections = new IdentityHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile int maximumSize;
+
+    /**
+     * Creates a statement cache.
+     * @param maximumSize The maximum number of idle statements per connection, 0 disables caching.
+     */
+    public StatementCache(int maximumSize) {
+        setMaximumSize(maximumSize);
+    }
+
+    /**
+     * Takes a cached statement for the SQL text or prepares a new one.
+     * Every statement obtained here must be handed back with {@link #release(String, PreparedStatement)}.
+     * @param connection The leased connection.
+     * @param sql The SQL text.
+     * @return The prepared statement.
+     * @throws SQLException If a database access error occurs.
+     */
+    public PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        if (this.maximumSize == 0) {
+            return connection.prepareStatement(sql);
+        }
+        Connection physical = connection.unwrap(Connection.class);
+        LinkedHashMap<String, PreparedStatement> statements = statements(physical);
+        PreparedStatement statement;
+        synchronized (statements) {
+            statement = statements.remove(sql);
+        }
+        if (statement != null && !statement.isClosed()) {
+            this.hits.increment();
+            return statement;
+        }
+        this.misses.increment();
+        purgeClosedConnections();
+        return physical.prepareStatement(sql);
+    }
+
+    /**
+     * Hands a statement back after use. Its parameters, batch and fetch size are reset, then it is kept for the
+     * next lease of its connection or closed if caching is disabled or another statement for the same SQL text is already idle.
+     * @param sql The SQL text the statement was prepared for.
+     * @param statement The statement obtained from {@link #prepare(Connection, String)}.
+     * @throws SQLException If a database access error occurs.
+     */
+    public void release(String sql, PreparedStatement statement) throws SQLException {
+        if (statement == null || statement.isClosed()) return;
+        Connection physical = statement.getConnection();
+        if (this.maximumSize == 0 || physical.isClosed()) {
+            statement.close();
+            return;
+        }
+        statement.clearParameters();
+        statement.clearBatch();
+        // A fetch size set for a streaming read would otherwise turn later MySQL queries of the statement into streaming reads
+        if (statement.getFetchSize() != 0) {
+            statement.setFetchSize(0);
+        }
+        LinkedHashMap<String, PreparedStatement> statements;
+        synchronized (this.connections) {
+            statements = this.connections.get(physical);
+        }
+        if (statements == null) {
+            statement.close();
+            return;
+        }
+        PreparedStatement previous;
+        synchronized (statements) {
+            previous = statements.putIfAbsent(sql, statement);
+        }
+        if (previous != null) {
+            statement.close();
+        }
+    }
+
+    /**
+     * @return The number of prepare calls served from the cache.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return The number of prepare calls which had to prepare a new statement.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return The number of idle statements closed to make room for others.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return The maximum number of idle statements per connection.
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Sets the maximum number of idle statements per connection. Shrinking takes effect on the next release.
+     * @param maximumSize The maximum number of idle statements per connection, 0 disables caching.
+     */
+    public void setMaximumSize(int maximumSize) {
+        if (maximumSize < 0) throw new IllegalArgumentException("The statement cache size must not be negative");
+        this.maximumSize = maximumSize;
+    }
+
+    private LinkedHashMap<String, PreparedStatement> statements(Connection physical) {
+        synchronized (this.connections) {
+            return this.connections.computeIfAbsent(physical, key -> new LinkedHashMap<String, PreparedStatement>(16, 0.75F, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= maximumSize) return false;
+                    evictions.increment();
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+            });
+        }
+    }
+
+    /**
+     * Drops the statements of physical connections the pool has retired in the meantime.
+     */
+    private void purgeClosedConnections() {
+        synchronized (this.connections) {
+            Iterator<Map.Entry<Connection, LinkedHashMap<String, PreparedStatement>>> iterator = this.connections.entrySet().iterator();
+            while (iterator.hasNext()) {
+                try {
+                    if (iterator.next().getKey().isClosed()) {
+                        iterator.remove();
+                    }
+                } catch (SQLException e) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+        }
+    }
+}
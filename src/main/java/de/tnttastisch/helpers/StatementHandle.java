@@ -0,0 +1,109 @@
+package de.tnttastisch.helpers;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * A SQL text together with the declared types of its parameters, created once with
+ * {@link DatabaseCommand#prepare(String, ParameterType...)} and executed many times.
+ * The values of an execution are set on a {@link Parameters} instance obtained from {@link #parameters()},
+ * which binds them with type-specialized setters instead of inspecting every argument at runtime.
+ * <p>
+ * Results are never served from the query cache, updates still invalidate it.
+ * @since = 2.1-RELEASE
+ */
+public final class StatementHandle {
+
+    private final DatabaseCommand command;
+    private final String sql;
+    private final ParameterType[] types;
+
+    StatementHandle(DatabaseCommand command, String sql, ParameterType[] types) {
+        this.command = command;
+        this.sql = sql;
+        this.types = types;
+    }
+
+    /**
+     * Creates an empty set of values for this statement.
+     * @return The parameters to fill before an execution.
+     */
+    public Parameters parameters() {
+        return new Parameters(this.types);
+    }
+
+    /**
+     * Executes the statement as an update asynchronously.
+     * @param parameters The values to bind.
+     * @return A CompletableFuture representing the completion of the update operation.
+     */
+    public CompletableFuture<Void> update(Parameters parameters) {
+        return this.command.executeUpdate(this.sql, check(parameters), Parameters::bind);
+    }
+
+    /**
+     * Executes the statement as a query asynchronously and copies all rows into detached {@link Row} objects.
+     * @param parameters The values to bind.
+     * @return A CompletableFuture containing the detached rows.
+     */
+    public CompletableFuture<List<Row>> queryRows(Parameters parameters) {
+        return this.command.executeQueryRows(this.sql, check(parameters), Parameters::bind, null);
+    }
+
+    /**
+     * Executes the statement as a query asynchronously and reads all rows into a {@link ColumnarResult}.
+     * @param parameters The values to bind.
+     * @param storage Where the primitive columns are stored.
+     * @return A CompletableFuture containing the columnar result.
+     */
+    public CompletableFuture<ColumnarResult> queryColumns(Parameters parameters, ColumnStorage storage) {
+        return this.command.executeQueryColumns(this.sql, check(parameters), Parameters::bind, storage);
+    }
+
+    /**
+     * Executes the statement as a query asynchronously and hands every mapped row to the consumer while the
+     * result is read. The consumer runs on the executor thread.
+     * @param parameters The values to bind.
+     * @param mapper The mapper converting the current row.
+     * @param consumer The consumer receiving every mapped row.
+     * @return A CompletableFuture containing the number of consumed rows.
+     */
+    public <T> CompletableFuture<Long> forEach(Parameters parameters, RowMapper<T> mapper, Consumer<? super T> consumer) {
+        return this.command.executeForEach(this.sql, this.command.getFetchSize(), check(parameters), Parameters::bind, mapper, consumer);
+    }
+
+    /**
+     * Executes the statement once for every set of values as JDBC batches inside a single transaction.
+     * @param parameters The values of every execution.
+     * @return A CompletableFuture containing the update count of every execution, in the order of the values.
+     */
+    public CompletableFuture<int[]> batch(Collection<Parameters> parameters) {
+        for (Parameters values : parameters) {
+            check(values);
+        }
+        return this.command.executeBatch(this.sql, this.command.getBatchSize(), parameters, Parameters::bind);
+    }
+
+    /**
+     * @return The SQL text.
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return The declared parameter types, in parameter order.
+     */
+    public ParameterType[] getParameterTypes() {
+        return types.clone();
+    }
+
+    Parameters check(Parameters parameters) {
+        if (!parameters.belongsTo(this.types)) {
+            throw new IllegalArgumentException("The parameters were not created by this statement handle");
+        }
+        return parameters;
+    }
+}
@@ -0,0 +1,210 @@
+package de.tnttastisch.helpers;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * A unit of work started with {@link DatabaseCommand#transaction(TransactionFunction)}. All statements run
+ * synchronously on the single connection leased for the transaction and are committed or rolled back together.
+ * A transaction may only be used by the function it was passed to, on the thread running that function.
+ * @since = 2.1-RELEASE
+ */
+public final class Transaction {
+
+    private static final Object[] NO_ARGUMENTS = new Object[0];
+
+    private final Connection connection;
+    private final StatementCache statements;
+    private final DatabaseCommand.Call call;
+    private final Set<String> updates = new LinkedHashSet<>();
+    private long rows;
+    private boolean closed;
+
+    Transaction(Connection connection, StatementCache statements, DatabaseCommand.Call call) {
+        this.connection = connection;
+        this.statements = statements;
+        this.call = call;
+    }
+
+    /**
+     * Executes a SQL query and copies all rows into detached {@link Row} objects.
+     * @param query The SQL query to execute.
+     * @param arguments The arguments to be set in the prepared statement.
+     * @return The detached rows.
+     * @throws SQLException If a database access error occurs.
+     */
+    public List<Row> queryRows(String query, Object... arguments) throws SQLException {
+        List<Row> rows = new ArrayList<>();
+        forEach(query, Row.mapper(), rows::add, arguments);
+        return rows;
+    }
+
+    /**
+     * Executes a SQL query and hands every mapped row to the consumer while the result is read.
+     * @param query The SQL query to execute.
+     * @param mapper The mapper converting the current row.
+     * @param consumer The consumer receiving every mapped row.
+     * @param arguments The arguments to be set in the prepared statement.
+     * @return The number of consumed rows.
+     * @throws SQLException If a database access error occurs.
+     */
+    public <T> long forEach(String query, RowMapper<T> mapper, Consumer<? super T> consumer, Object... arguments) throws SQLException {
+        return forEach(query, arguments, DatabaseCommand::setArgs, mapper, consumer);
+    }
+
+    /**
+     * Executes the query of a statement handle and copies all rows into detached {@link Row} objects.
+     * @param handle The statement handle.
+     * @param parameters The values to bind.
+     * @return The detached rows.
+     * @throws SQLException If a database access error occurs.
+     */
+    public List<Row> queryRows(StatementHandle handle, Parameters parameters) throws SQLException {
+        List<Row> rows = new ArrayList<>();
+        forEach(handle.getSql(), handle.check(parameters), Parameters::bind, Row.mapper(), rows::add);
+        return rows;
+    }
+
+    /**
+     * Executes a SQL update.
+     * @param update The SQL update statement to execute.
+     * @param arguments The arguments to be set in the prepared statement.
+     * @return The number of changed rows.
+     * @throws SQLException If a database access error occurs.
+     */
+    public int update(String update, Object... arguments) throws SQLException {
+        return update(update, arguments, DatabaseCommand::setArgs);
+    }
+
+    /**
+     * Executes a SQL update.
+     * @param update The SQL update statement to execute.
+     * @return The number of changed rows.
+     * @throws SQLException If a database access error occurs.
+     */
+    public int update(String update) throws SQLException {
+        return update(update, NO_ARGUMENTS);
+    }
+
+    /**
+     * Executes the update of a statement handle.
+     * @param handle The statement handle.
+     * @param parameters The values to bind.
+     * @return The number of changed rows.
+     * @throws SQLException If a database access error occurs.
+     */
+    public int update(StatementHandle handle, Parameters parameters) throws SQLException {
+        return update(handle.getSql(), handle.check(parameters), Parameters::bind);
+    }
+
+    /**
+     * Executes the same SQL update for every argument row as one JDBC batch.
+     * @param update The SQL update statement to execute.
+     * @param arguments The argument rows, one array per execution of the statement.
+     * @return The update count of every row, in the order of the argument rows.
+     * @throws SQLException If a database access error occurs.
+     */
+    public int[] batch(String update, Collection<Object[]> arguments) throws SQLException {
+        checkOpen();
+        PreparedStatement statement = this.statements.prepare(this.connection, update);
+        try {
+            for (Object[] row : arguments) {
+                DatabaseCommand.setArgs(row, statement);
+                statement.addBatch();
+            }
+            int[] counts;
+            this.call.begin(statement);
+            try {
+                counts = statement.executeBatch();
+            } finally {
+                this.call.end();
+            }
+            for (int count : counts) {
+                this.rows += Math.max(count, 0);
+            }
+            this.updates.add(update);
+            return counts;
+        } finally {
+            this.statements.release(update, statement);
+        }
+    }
+
+    /**
+     * Gets the leased connection for operations not covered by this class. It must neither be closed
+     * nor committed, and its auto-commit mode must not be changed.
+     * @return The connection of this transaction.
+     */
+    public Connection getConnection() {
+        checkOpen();
+        return connection;
+    }
+
+    private <A, T> long forEach(String query, A arguments, DatabaseCommand.ParameterBinder<A> binder, RowMapper<T> mapper, Consumer<? super T> consumer) throws SQLException {
+        checkOpen();
+        PreparedStatement statement = this.statements.prepare(this.connection, query);
+        try {
+            binder.bind(arguments, statement);
+            long rows = 0;
+            this.call.begin(statement);
+            try (ResultSet result = statement.executeQuery()) {
+                while (result.next()) {
+                    consumer.accept(mapper.map(result));
+                    rows++;
+                }
+            } finally {
+                this.call.end();
+            }
+            this.rows += rows;
+            return rows;
+        } finally {
+            this.statements.release(query, statement);
+        }
+    }
+
+    private <A> int update(String update, A arguments, DatabaseCommand.ParameterBinder<A> binder) throws SQLException {
+        checkOpen();
+        PreparedStatement statement = this.statements.prepare(this.connection, update);
+        try {
+            binder.bind(arguments, statement);
+            int count;
+            this.call.begin(statement);
+            try {
+                count = statement.executeUpdate();
+            } finally {
+                this.call.end();
+            }
+            this.rows += count;
+            this.updates.add(update);
+            return count;
+        } finally {
+            this.statements.release(update, statement);
+        }
+    }
+
+    private void checkOpen() {
+        if (this.closed) throw new IllegalStateException("The transaction is already finished");
+    }
+
+    /**
+     * @return The SQL texts of all updates executed in this transaction.
+     */
+    Set<String> getUpdates() {
+        return updates;
+    }
+
+    long getRows() {
+        return rows;
+    }
+
+    void close() {
+        this.closed = true;
+    }
+}
@@ -0,0 +1,20 @@
+package de.tnttastisch.helpers;
+
+import java.sql.SQLException;
+
+/**
+ * The statements of a unit of work, run by {@link DatabaseCommand#transaction(TransactionFunction)}.
+ * @param <T> The type of the result.
+ * @since = 2.1-RELEASE
+ */
+@FunctionalInterface
+public interface TransactionFunction<T> {
+
+    /**
+     * Runs the statements of the unit of work. Throwing an exception rolls the transaction back.
+     * @param transaction The transaction to run the statements on.
+     * @return The result of the unit of work.
+     * @throws SQLException If a database access error occurs.
+     */
+    T apply(Transaction transaction) throws SQLException;
+}
@@ -0,0 +1,250 @@
+package de.tnttastisch.helpers;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inserts many rows at once and updates the rows whose key already exists, created with
+ * {@link DatabaseCommand#upsert(String)}. The rows are sent as multi-row {@code VALUES} statements,
+ * {@code INSERT ... ON DUPLICATE KEY UPDATE} on MySQL and {@code INSERT ... ON CONFLICT DO UPDATE} on SQLite,
+ * each holding as many rows as the parameter limit of the database and the batch size of the command allow.
+ * A table with more columns than the parameter limit cannot be upserted.
+ * <p>
+ * On MySQL the updated columns refer to the inserted values with {@code VALUES(column)} by default, which
+ * MySQL 8.0.20 and newer deprecate and answer with a warning per statement. Servers since MySQL 8.0.19
+ * understand the row alias form enabled with {@link #rowAlias(boolean)}; MariaDB does not.
+ * <p>
+ * The remaining rows which do not fill a whole statement are split into statements of power-of-two sizes,
+ * so only a few statement shapes exist per builder. Their SQL texts are kept by the builder and their prepared
+ * statements by the statement cache, which is why a builder should be kept and reused for the same table.
+ * @since = 2.1-RELEASE
+ */
+public final class UpsertBuilder {
+
+    private static final int SQLITE_MAX_PARAMETERS = 999;
+    private static final int MYSQL_MAX_PARAMETERS = 65535;
+
+    private final DatabaseCommand command;
+    private final String table;
+    private final Map<Integer, String> statements = new ConcurrentHashMap<>();
+    private volatile String[] columns = new String[0];
+    private volatile String[] keys = new String[0];
+    private volatile String[] updateColumns;
+    private volatile int maxParameters;
+    private volatile boolean rowAlias;
+
+    UpsertBuilder(DatabaseCommand command, String table) {
+        this.command = command;
+        this.table = table;
+    }
+
+    /**
+     * Sets the columns of every row, in the order of the values of a row.
+     * @param columns The column names.
+     * @return This builder, for chaining.
+     */
+    public UpsertBuilder columns(String... columns) {
+        if (columns.length == 0) throw new IllegalArgumentException("At least one column is required");
+        this.columns = columns.clone();
+        this.statements.clear();
+        return this;
+    }
+
+    /**
+     * Sets the key columns deciding whether a row already exists. SQLite requires them to be the columns of
+     * a primary key or unique index. MySQL always checks all unique indexes of the table, but they are still required.
+     * @param keys The key column names, all of them contained in the columns.
+     * @return This builder, for chaining.
+     */
+    public UpsertBuilder keys(String... keys) {
+        if (keys.length == 0) throw new IllegalArgumentException("At least one key column is required");
+        this.keys = keys.clone();
+        this.statements.clear();
+        return this;
+    }
+
+    /**
+     * Sets the columns overwritten when a row already exists. By default these are all columns except the keys.
+     * @param updateColumns The column names to overwrite, none to keep existing rows unchanged.
+     * @return This builder, for chaining.
+     */
+    public UpsertBuilder updateColumns(String... updateColumns) {
+        this.updateColumns = updateColumns.clone();
+        this.statements.clear();
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of parameters per statement. By default this is the limit of the database,
+     * 999 on SQLite and 65535 on MySQL.
+     * @param maxParameters The maximum number of parameters, 0 for the limit of the database.
+     * @return This builder, for chaining.
+     */
+    public UpsertBuilder maxParameters(int maxParameters) {
+        if (maxParameters < 0) throw new IllegalArgumentException("The maximum number of parameters must not be negative");
+        this.maxParameters = maxParameters;
+        return this;
+    }
+
+    /**
+     * Makes the MySQL statements refer to the inserted values through a row alias,
+     * {@code INSERT ... VALUES (...) AS excluded ON DUPLICATE KEY UPDATE column = excluded.column}, instead of the
+     * deprecated {@code VALUES(column)}. Requires MySQL 8.0.19 or newer, SQLite statements are not affected.
+     * @param rowAlias Whether the row alias form is used.
+     * @return This builder, for chaining.
+     */
+    public UpsertBuilder rowAlias(boolean rowAlias) {
+        this.rowAlias = rowAlias;
+        this.statements.clear();
+        return this;
+    }
+
+    /**
+     * Upserts the rows asynchronously inside a single transaction. If any statement fails the whole transaction
+     * is rolled back and the future completes exceptionally.
+     * @param rows The rows, one array of values per row in the order of the columns.
+     * @return A CompletableFuture containing the number of changed rows as reported by the database. MySQL counts
+     * an inserted row once and an updated row twice.
+     */
+    public CompletableFuture<Long> execute(Collection<Object[]> rows) {
+        check(rows);
+        if (rows.isEmpty()) return CompletableFuture.completedFuture(0L);
+        return this.command.transaction(transaction -> execute(transaction, rows));
+    }
+
+    /**
+     * Upserts the rows as part of a running transaction.
+     * @param transaction The transaction to run the statements in.
+     * @param rows The rows, one array of values per row in the order of the columns.
+     * @return The number of changed rows as reported by the database. MySQL counts an inserted row once and an updated row twice.
+     * @throws SQLException If a database access error occurs.
+     */
+    public long execute(Transaction transaction, Collection<Object[]> rows) throws SQLException {
+        check(rows);
+        int width = this.columns.length;
+        int maxRows = Math.min(this.command.getBatchSize(), getMaxParameters() / width);
+        Iterator<Object[]> iterator = rows.iterator();
+        int remaining = rows.size();
+        long changed = 0;
+        Object[] arguments = null;
+        while (remaining > 0) {
+            // Full statements first, then the largest power of two fitting the rest, to reuse few statement shapes
+            int count = remaining >= maxRows ? maxRows : Integer.highestOneBit(remaining);
+            if (arguments == null || arguments.length != count * width) {
+                arguments = new Object[count * width];
+            }
+            for (int row = 0; row < count; row++) {
+                System.arraycopy(iterator.next(), 0, arguments, row * width, width);
+            }
+            changed += transaction.update(statement(count), arguments);
+            remaining -= count;
+        }
+        return changed;
+    }
+
+    /**
+     * Gets the SQL text of the statement upserting the given number of rows.
+     * @param rows The number of rows.
+     * @return The SQL text.
+     */
+    public String statement(int rows) {
+        if (rows <= 0) throw new IllegalArgumentException("The number of rows must be positive");
+        DatabaseType type = getDatabaseType();
+        // The dialect is part of the key, the type of the command may still be switched
+        int key = rows << 1 | (type == DatabaseType.MYSQL ? 1 : 0);
+        String sql = this.statements.get(key);
+        if (sql == null) {
+            sql = build(type, rows);
+            this.statements.put(key, sql);
+        }
+        return sql;
+    }
+
+    private String build(DatabaseType type, int rows) {
+        String[] columns = this.columns;
+        StringBuilder sql = new StringBuilder(64 + rows * (columns.length * 3 + 2));
+        sql.append("INSERT INTO ").append(this.table).append(" (").append(String.join(", ", columns)).append(") VALUES ");
+        for (int row = 0; row < rows; row++) {
+            if (row > 0) sql.append(", ");
+            sql.append("(?");
+            for (int column = 1; column < columns.length; column++) {
+                sql.append(", ?");
+            }
+            sql.append(')');
+        }
+        List<String> updates = getUpdateColumns();
+        if (type == DatabaseType.MYSQL) {
+            boolean alias = this.rowAlias;
+            if (alias) sql.append(" AS excluded");
+            sql.append(" ON DUPLICATE KEY UPDATE ");
+            if (updates.isEmpty()) {
+                // Assigning a key to itself keeps the existing row without turning duplicates into errors
+                sql.append(this.keys[0]).append(" = ").append(this.keys[0]);
+            }
+            for (int i = 0; i < updates.size(); i++) {
+                if (i > 0) sql.append(", ");
+                if (alias) {
+                    sql.append(updates.get(i)).append(" = excluded.").append(updates.get(i));
+                } else {
+                    sql.append(updates.get(i)).append(" = VALUES(").append(updates.get(i)).append(')');
+                }
+            }
+            return sql.toString();
+        }
+        sql.append(" ON CONFLICT (").append(String.join(", ", this.keys)).append(") DO ");
+        if (updates.isEmpty()) return sql.append("NOTHING").toString();
+        sql.append("UPDATE SET ");
+        for (int i = 0; i < updates.size(); i++) {
+            if (i > 0) sql.append(", ");
+            sql.append(updates.get(i)).append(" = excluded.").append(updates.get(i));
+        }
+        return sql.toString();
+    }
+
+    private List<String> getUpdateColumns() {
+        if (this.updateColumns != null) return Arrays.asList(this.updateColumns);
+        List<String> keys = Arrays.asList(this.keys);
+        List<String> updates = new ArrayList<>();
+        for (String column : this.columns) {
+            if (!keys.contains(column)) {
+                updates.add(column);
+            }
+        }
+        return updates;
+    }
+
+    private DatabaseType getDatabaseType() {
+        DatabaseType type = this.command.getDatabaseType();
+        if (type == null) throw new IllegalStateException("The database type of the command is not set");
+        return type;
+    }
+
+    private int getMaxParameters() {
+        if (this.maxParameters > 0) return this.maxParameters;
+        return getDatabaseType() == DatabaseType.MYSQL ? MYSQL_MAX_PARAMETERS : SQLITE_MAX_PARAMETERS;
+    }
+
+    private void check(Collection<Object[]> rows) {
+        if (this.columns.length == 0) throw new IllegalStateException("The columns of the upsert are not set");
+        if (this.keys.length == 0) throw new IllegalStateException("The key columns of the upsert are not set");
+        if (!Arrays.asList(this.columns).containsAll(Arrays.asList(this.keys))) {
+            throw new IllegalStateException("The key columns must be contained in the columns");
+        }
+        int maxParameters = getMaxParameters();
+        if (this.columns.length > maxParameters) {
+            throw new IllegalStateException("The " + this.columns.length + " columns exceed the limit of " + maxParameters + " parameters per statement");
+        }
+        for (Object[] row : rows) {
+            if (row.length != this.columns.length) {
+                throw new IllegalArgumentException("Every row needs a value for each of the " + this.columns.length + " columns");
+            }
+        }
+    }
+}
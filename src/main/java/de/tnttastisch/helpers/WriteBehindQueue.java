@@ -0,0 +1,150 @@
+package de.tnttastisch.helpers;
+
+import com.zaxxer.hikari.pool.HikariPool;
+import org.slf4j.Logger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Buffers fire-and-forget updates, groups them by their SQL text and writes them as JDBC batches.
+ * A flush happens once the configured number of updates is pending or the flush interval passed,
+ * whichever comes first. Updates with the same SQL text keep their order; updates with different
+ * SQL texts may be reordered. Failed batches are logged and dropped.
+ * @since = 2.1-RELEASE
+ */
+public class WriteBehindQueue {
+
+    private final HikariPool pool;
+    private final DatabaseCommand command;
+    private final Logger logger;
+    private final int flushSize;
+    private final Semaphore capacity;
+    private final ScheduledExecutorService scheduler;
+    private final Object lock = new Object();
+    private final Object flushLock = new Object();
+    private Map<String, List<Object[]>> pending = new LinkedHashMap<>();
+    private int size;
+    private volatile boolean closed;
+
+    /**
+     * Creates a write-behind queue.
+     * @param pool          The connection pool the batches are written to.
+     * @param command       The command executing the batches.
+     * @param logger        The logger instance to log errors and messages.
+     * @param flushSize     The number of pending updates which triggers a flush.
+     * @param flushInterval The maximum time in milliseconds an update stays buffered.
+     * @param capacity      The maximum number of pending updates before enqueue blocks.
+     */
+    public WriteBehindQueue(HikariPool pool, DatabaseCommand command, Logger logger, int flushSize, long flushInterval, int capacity) {
+        if (flushSize <= 0 || flushInterval <= 0 || capacity < flushSize) {
+            throw new IllegalArgumentException("The flush size and interval must be positive and the capacity at least the flush size");
+        }
+        this.pool = pool;
+        this.command = command;
+        this.logger = logger;
+        this.flushSize = flushSize;
+        this.capacity = new Semaphore(capacity);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "SQLAPI-WriteBehind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Buffers an update. Blocks while the queue is at capacity.
+     * @param update The SQL update statement to execute.
+     * @param arguments The arguments to be set in the prepared statement.
+     * @throws InterruptedException If the thread is interrupted while waiting for free capacity.
+     * @throws IllegalStateException If the queue is shut down.
+     */
+    public void enqueue(String update, Object... arguments) throws InterruptedException {
+        if (this.closed) throw new IllegalStateException("The write-behind queue is shut down");
+        this.capacity.acquire();
+        boolean flush;
+        synchronized (this.lock) {
+            // Checked again under the lock, shutdown closes the queue under it before its final flush
+            if (this.closed) {
+                this.capacity.release();
+                throw new IllegalStateException("The write-behind queue is shut down");
+            }
+            this.pending.computeIfAbsent(update, key -> new ArrayList<>()).add(arguments);
+            flush = ++this.size == this.flushSize;
+        }
+        if (flush) {
+            try {
+                this.scheduler.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                // The scheduler stopped while the update was buffered, write it on this thread
+                flush();
+            }
+        }
+    }
+
+    /**
+     * @return The number of currently buffered updates.
+     */
+    public int getPendingCount() {
+        synchronized (this.lock) {
+            return this.size;
+        }
+    }
+
+    /**
+     * Writes all buffered updates. Each SQL text is written as its own transaction.
+     * Concurrent flushes are serialized so updates with the same SQL text keep their order.
+     */
+    public void flush() {
+        synchronized (this.flushLock) {
+            Map<String, List<Object[]>> batches;
+            int count;
+            synchronized (this.lock) {
+                if (this.size == 0) return;
+                batches = this.pending;
+                count = this.size;
+                this.pending = new LinkedHashMap<>();
+                this.size = 0;
+            }
+            try (Connection connection = this.pool.getConnection()) {
+                for (Map.Entry<String, List<Object[]>> batch : batches.entrySet()) {
+                    try {
+                        this.command.executeBatch(connection, batch.getKey(), this.command.getBatchSize(), batch.getValue());
+                    } catch (SQLException e) {
+                        this.logger.error(String.format("A Sql error occurred while flushing %d buffered updates: ", batch.getValue().size()), e);
+                    } catch (RuntimeException e) {
+                        // Thrown out of the periodic flush it would cancel the schedule, so only this batch is dropped
+                        this.logger.error(String.format("An error occurred while flushing %d buffered updates: ", batch.getValue().size()), e);
+                    }
+                }
+            } catch (SQLException e) {
+                this.logger.error(String.format("A Sql error occurred while flushing %d buffered updates: ", count), e);
+            } finally {
+                this.capacity.release(count);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting updates and writes everything still buffered.
+     * @throws InterruptedException If the thread is interrupted while waiting for a running flush.
+     */
+    public void shutdown() throws InterruptedException {
+        synchronized (this.lock) {
+            this.closed = true;
+        }
+        this.scheduler.shutdown();
+        this.scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        flush();
+    }
+}
@@ -0,0 +1,111 @@
+package de.tnttastisch.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock and allocation free histogram with power of two buckets. Recorded values are rounded up
+ * to the next power of two, which bounds the error of percentiles to a factor of two.
+ * @since = 2.1-RELEASE
+ */
+public final class Histogram {
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a value.
+     * @param value The value, negative values are recorded as 0.
+     */
+    public void record(long value) {
+        long recorded = Math.max(value, 0);
+        this.buckets.incrementAndGet(bucket(recorded));
+        this.count.increment();
+        this.sum.add(recorded);
+        long current;
+        while ((current = this.max.get()) < recorded && !this.max.compareAndSet(current, recorded)) {
+            // retry until the maximum is at least the recorded value
+        }
+    }
+
+    /**
+     * @return An immutable copy of the current state.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[this.buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.buckets.get(i);
+        }
+        return new Snapshot(counts, this.count.sum(), this.sum.sum(), this.max.get());
+    }
+
+    private static int bucket(long value) {
+        return value == 0 ? 0 : 64 - Long.numberOfLeadingZeros(value - 1);
+    }
+
+    /**
+     * An immutable state of a histogram.
+     */
+    public static final class Snapshot {
+
+        private final long[] buckets;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] buckets, long count, long sum, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        /**
+         * @return The number of recorded values.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return The sum of all recorded values.
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * @return The largest recorded value.
+         */
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @return The mean of the recorded values, 0 if nothing was recorded.
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * @param quantile The quantile between 0 and 1, for example 0.99.
+         * @return The upper bound of the bucket holding the quantile, at most the largest recorded value.
+         */
+        public long getPercentile(double quantile) {
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return i == 0 ? 0 : Math.min(i >= 63 ? Long.MAX_VALUE : 1L << i, max);
+                }
+            }
+            return max;
+        }
+    }
+}
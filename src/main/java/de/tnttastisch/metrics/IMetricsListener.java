@@ -0,0 +1,71 @@
+package de.tnttastisch.metrics;
+
+import java.sql.SQLException;
+
+/**
+ * The IMetricsListener interface receives timings and counters of the database operations and the
+ * connection pool. Callbacks run on the threads executing the operations and should return quickly.
+ * @since = 2.1-RELEASE
+ */
+public interface IMetricsListener {
+
+    /**
+     * A listener ignoring all events.
+     */
+    IMetricsListener NOOP = new IMetricsListener() {
+    };
+
+    /**
+     * Called when an operation starts running on the executor.
+     * @param type      The type of the operation.
+     * @param waitNanos The time the operation waited in the executor queue.
+     */
+    default void onDequeued(OperationType type, long waitNanos) {
+    }
+
+    /**
+     * Called when a statement finished successfully.
+     * @param type          The type of the operation.
+     * @param fingerprint   The SQL text with literals replaced, see {@link SqlFingerprint}.
+     * @param durationNanos The time the operation ran on its leased connection, excluding the wait for the connection.
+     * @param rows          The number of rows returned or affected.
+     */
+    default void onStatement(OperationType type, String fingerprint, long durationNanos, long rows) {
+    }
+
+    /**
+     * Called when a statement failed.
+     * @param type        The type of the operation.
+     * @param fingerprint The SQL text with literals replaced, see {@link SqlFingerprint}.
+     * @param error       The error.
+     */
+    default void onError(OperationType type, String fingerprint, SQLException error) {
+    }
+
+    /**
+     * Called by the connection pool after a connection was leased.
+     * @param waitNanos The time the caller waited for the connection.
+     */
+    default void onConnectionAcquired(long waitNanos) {
+    }
+
+    /**
+     * Called by the connection pool when a connection is handed back.
+     * @param usageMillis The time the connection was leased.
+     */
+    default void onConnectionUsage(long usageMillis) {
+    }
+
+    /**
+     * Called by the connection pool when no connection became available in time.
+     */
+    default void onConnectionTimeout() {
+    }
+
+    /**
+     * Called by the connection pool after a new physical connection was opened.
+     * @param creationMillis The time it took to open the connection.
+     */
+    default void onConnectionCreated(long creationMillis) {
+    }
+}
@@ -0,0 +1,89 @@
+package de.tnttastisch.metrics;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Default metrics listener collecting everything in memory. Recording only allocates when a
+ * fingerprint is seen for the first time; {@link #snapshot()} copies the current state.
+ * @since = 2.1-RELEASE
+ */
+public class InMemoryMetrics implements IMetricsListener {
+
+    private final Map<OperationType, Map<String, Statement>> statements = new ConcurrentHashMap<>();
+    private final Histogram queueWait = new Histogram();
+    private final Histogram connectionWait = new Histogram();
+    private final Histogram connectionUsage = new Histogram();
+    private final Histogram connectionCreation = new Histogram();
+    private final LongAdder connectionTimeouts = new LongAdder();
+
+    @Override
+    public void onDequeued(OperationType type, long waitNanos) {
+        this.queueWait.record(waitNanos);
+    }
+
+    @Override
+    public void onStatement(OperationType type, String fingerprint, long durationNanos, long rows) {
+        Statement statement = statement(type, fingerprint);
+        statement.latency.record(durationNanos);
+        statement.rows.add(rows);
+    }
+
+    @Override
+    public void onError(OperationType type, String fingerprint, SQLException error) {
+        statement(type, fingerprint).errors.increment();
+    }
+
+    @Override
+    public void onConnectionAcquired(long waitNanos) {
+        this.connectionWait.record(waitNanos);
+    }
+
+    @Override
+    public void onConnectionUsage(long usageMillis) {
+        this.connectionUsage.record(usageMillis);
+    }
+
+    @Override
+    public void onConnectionTimeout() {
+        this.connectionTimeouts.increment();
+    }
+
+    @Override
+    public void onConnectionCreated(long creationMillis) {
+        this.connectionCreation.record(creationMillis);
+    }
+
+    /**
+     * @return A copy of all metrics collected so far.
+     */
+    public MetricsSnapshot snapshot() {
+        List<MetricsSnapshot.StatementMetrics> statements = new ArrayList<>();
+        this.statements.forEach((type, fingerprints) -> fingerprints.forEach((fingerprint, statement) ->
+                statements.add(new MetricsSnapshot.StatementMetrics(type, fingerprint, statement.latency.snapshot(), statement.rows.sum(), statement.errors.sum()))));
+        return new MetricsSnapshot(statements, this.queueWait.snapshot(), this.connectionWait.snapshot(),
+                this.connectionUsage.snapshot(), this.connectionCreation.snapshot(), this.connectionTimeouts.sum());
+    }
+
+    private Statement statement(OperationType type, String fingerprint) {
+        Map<String, Statement> fingerprints = this.statements.get(type);
+        if (fingerprints == null) {
+            fingerprints = this.statements.computeIfAbsent(type, key -> new ConcurrentHashMap<>());
+        }
+        Statement statement = fingerprints.get(fingerprint);
+        if (statement == null) {
+            statement = fingerprints.computeIfAbsent(fingerprint, key -> new Statement());
+        }
+        return statement;
+    }
+
+    private static final class Statement {
+        private final Histogram latency = new Histogram();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+    }
+}
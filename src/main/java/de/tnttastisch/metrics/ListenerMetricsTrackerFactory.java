@@ -0,0 +1,46 @@
+package de.tnttastisch.metrics;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+/**
+ * Forwards the metrics of a Hikari pool to an {@link IMetricsListener}.
+ * @since = 2.1-RELEASE
+ */
+public class ListenerMetricsTrackerFactory implements MetricsTrackerFactory {
+
+    private final IMetricsListener listener;
+
+    /**
+     * @param listener The listener receiving the pool metrics.
+     */
+    public ListenerMetricsTrackerFactory(IMetricsListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+                listener.onConnectionCreated(connectionCreatedMillis);
+            }
+
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                listener.onConnectionAcquired(elapsedAcquiredNanos);
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                listener.onConnectionUsage(elapsedBorrowedMillis);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                listener.onConnectionTimeout();
+            }
+        };
+    }
+}
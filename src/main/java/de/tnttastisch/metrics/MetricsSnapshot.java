@@ -0,0 +1,126 @@
+package de.tnttastisch.metrics;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable copy of the metrics collected by {@link InMemoryMetrics}.
+ * Latencies and waits are in nanoseconds, connection usage and creation times in milliseconds.
+ * @since = 2.1-RELEASE
+ */
+public final class MetricsSnapshot {
+
+    private final List<StatementMetrics> statements;
+    private final Histogram.Snapshot queueWait;
+    private final Histogram.Snapshot connectionWait;
+    private final Histogram.Snapshot connectionUsage;
+    private final Histogram.Snapshot connectionCreation;
+    private final long connectionTimeouts;
+
+    MetricsSnapshot(List<StatementMetrics> statements, Histogram.Snapshot queueWait, Histogram.Snapshot connectionWait,
+                    Histogram.Snapshot connectionUsage, Histogram.Snapshot connectionCreation, long connectionTimeouts) {
+        this.statements = Collections.unmodifiableList(statements);
+        this.queueWait = queueWait;
+        this.connectionWait = connectionWait;
+        this.connectionUsage = connectionUsage;
+        this.connectionCreation = connectionCreation;
+        this.connectionTimeouts = connectionTimeouts;
+    }
+
+    /**
+     * @return The metrics of every operation type and fingerprint seen so far.
+     */
+    public List<StatementMetrics> getStatements() {
+        return statements;
+    }
+
+    /**
+     * @return The time operations waited in the executor queue, in nanoseconds.
+     */
+    public Histogram.Snapshot getQueueWait() {
+        return queueWait;
+    }
+
+    /**
+     * @return The time callers waited for a pooled connection, in nanoseconds.
+     */
+    public Histogram.Snapshot getConnectionWait() {
+        return connectionWait;
+    }
+
+    /**
+     * @return The time connections were leased, in milliseconds.
+     */
+    public Histogram.Snapshot getConnectionUsage() {
+        return connectionUsage;
+    }
+
+    /**
+     * @return The time it took to open physical connections, in milliseconds.
+     */
+    public Histogram.Snapshot getConnectionCreation() {
+        return connectionCreation;
+    }
+
+    /**
+     * @return The number of times no connection became available in time.
+     */
+    public long getConnectionTimeouts() {
+        return connectionTimeouts;
+    }
+
+    /**
+     * The metrics of one operation type and SQL fingerprint.
+     */
+    public static final class StatementMetrics {
+
+        private final OperationType type;
+        private final String fingerprint;
+        private final Histogram.Snapshot latency;
+        private final long rows;
+        private final long errors;
+
+        StatementMetrics(OperationType type, String fingerprint, Histogram.Snapshot latency, long rows, long errors) {
+            this.type = type;
+            this.fingerprint = fingerprint;
+            this.latency = latency;
+            this.rows = rows;
+            this.errors = errors;
+        }
+
+        /**
+         * @return The type of the operation.
+         */
+        public OperationType getType() {
+            return type;
+        }
+
+        /**
+         * @return The SQL fingerprint.
+         */
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * @return The execution latency of successful statements, in nanoseconds.
+         */
+        public Histogram.Snapshot getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return The total number of rows returned or affected.
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * @return The number of failed executions.
+         */
+        public long getErrors() {
+            return errors;
+        }
+    }
+}
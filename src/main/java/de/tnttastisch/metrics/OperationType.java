@@ -0,0 +1,28 @@
+package de.tnttastisch.metrics;
+
+/**
+ * The kinds of operations executed by a DatabaseCommand.
+ * @since = 2.1-RELEASE
+ */
+public enum OperationType {
+
+    QUERY(false),
+    STREAM(false),
+    UPDATE(true),
+    LARGE_UPDATE(true),
+    BATCH(true),
+    TRANSACTION(true);
+
+    private final boolean write;
+
+    OperationType(boolean write) {
+        this.write = write;
+    }
+
+    /**
+     * @return Whether operations of this type modify the database and must run on the write side.
+     */
+    public boolean isWrite() {
+        return write;
+    }
+}
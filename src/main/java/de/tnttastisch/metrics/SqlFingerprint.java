@@ -0,0 +1,80 @@
+package de.tnttastisch.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Normalizes SQL texts so statements differing only in literal values share one fingerprint.
+ * String and numeric literals are replaced with {@code ?} and whitespace is collapsed.
+ * Fingerprints of the first {@value #CACHE_SIZE} distinct SQL texts are remembered, so the
+ * usual small set of hot statements is normalized only once.
+ * @since = 2.1-RELEASE
+ */
+public final class SqlFingerprint {
+
+    private static final int CACHE_SIZE = 1024;
+    private static final Map<String, String> CACHE = new ConcurrentHashMap<>();
+
+    private SqlFingerprint() {
+    }
+
+    /**
+     * @param sql The SQL text.
+     * @return The fingerprint of the SQL text.
+     */
+    public static String of(String sql) {
+        String fingerprint = CACHE.get(sql);
+        if (fingerprint != null) return fingerprint;
+        fingerprint = normalize(sql);
+        if (CACHE.size() < CACHE_SIZE) {
+            CACHE.put(sql, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    private static String normalize(String sql) {
+        StringBuilder builder = new StringBuilder(sql.length());
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                i++;
+                while (i < length) {
+                    if (sql.charAt(i) == '\'') {
+                        if (i + 1 < length && sql.charAt(i + 1) == '\'') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                builder.append('?');
+                i++;
+            } else if (Character.isDigit(c) && !isIdentifierPart(builder)) {
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+                    i++;
+                }
+                builder.append('?');
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(sql.charAt(i))) {
+                    i++;
+                }
+                if (builder.length() > 0 && i < length) {
+                    builder.append(' ');
+                }
+            } else {
+                builder.append(c);
+                i++;
+            }
+        }
+        return builder.toString();
+    }
+
+    private static boolean isIdentifierPart(StringBuilder builder) {
+        if (builder.length() == 0) return false;
+        char previous = builder.charAt(builder.length() - 1);
+        return Character.isLetterOrDigit(previous) || previous == '_' || previous == '$' || previous == '`' || previous == '"';
+    }
+}
@@ -1,8 +1,18 @@
 package de.tnttastisch.migration;
 
-import de.tnttastisch.SQLFactory;
+import de.tnttastisch.helpers.DatabaseType;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 /**
  * Migration class handles the migration process for a specific table in the database.
@@ -10,9 +20,19 @@ import java.sql.*;
  */
 public class Migration {
 
+    /**
+     * The table recording the progress of running migrations.
+     */
+    public static final String STATE_TABLE = "sqlapi_migration_state";
+    private static final String PHASE_LEGACY = "LEGACY";
+    private static final String PHASE_COPY = "COPY";
+
     private final String table;
     private final String tableName;
     private final String outdatedTable;
+    private final Set<String> dependencies = new LinkedHashSet<>();
+    private int chunkSize = 1000;
+    private boolean inPlace = true;
 
     /**
      * Constructs a new Migration object for the specified table.
@@ -31,8 +51,70 @@ public class Migration {
         table = old_table;
     }
 
+    /**
+     * Sets the number of rows copied per transaction when the data cannot be copied with a single
+     * {@code INSERT ... SELECT}.
+     * @param chunkSize The number of rows per chunk, must be positive.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("The chunk size must be positive");
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets whether changes which {@link SchemaDiff} can express as {@code ALTER TABLE} statements are applied
+     * in place. Otherwise every change copies the whole table. Enabled by default.
+     * On SQLite the statements and the ledger entry are committed together. MySQL commits every
+     * {@code ALTER TABLE} implicitly, so once it succeeded the migration no longer falls back to copying
+     * the table and fails if the ledger entry cannot be written.
+     * @param inPlace Whether in-place changes are allowed.
+     */
+    public void setInPlace(boolean inPlace) {
+        this.inPlace = inPlace;
+    }
+
+    /**
+     * Declares tables which have to be migrated before this one, for example the tables referenced by foreign keys.
+     * Only affects the order used by {@link MigrationScheduler}.
+     * @param tableNames The names of the tables this table depends on.
+     * @return This migration, for chaining.
+     */
+    public Migration dependsOn(String... tableNames) {
+        this.dependencies.addAll(Arrays.asList(tableNames));
+        return this;
+    }
+
+    /**
+     * @return The names of the tables which have to be migrated before this one.
+     */
+    public Set<String> getDependencies() {
+        return Collections.unmodifiableSet(dependencies);
+    }
+
+    /**
+     * @return The checksum of the table definition this migration produces.
+     */
+    public String getChecksum() {
+        return SchemaLedger.checksum(table);
+    }
+
+    /**
+     * Checks whether this migration has nothing to do, either because the definition did not change
+     * or because the {@value SchemaLedger#TABLE} table records that it already ran.
+     * @param checksums The recorded checksums by table name, see {@link SchemaLedger#read(Connection)}.
+     * @return Whether the migration can be skipped.
+     */
+    public boolean isUpToDate(Map<String, String> checksums) {
+        return this.outdatedTable.equals("") || !hasToMigrate(table, outdatedTable) || getChecksum().equals(checksums.get(tableName));
+    }
+
     /**
      * Executes the migration process for the specified connection.
+     * The progress is recorded in the {@value #STATE_TABLE} table, so an interrupted migration
+     * continues where it stopped instead of starting over. Rows are copied in primary key order and a resumed
+     * copy continues after the highest key already copied; a table without a primary key is copied again
+     * from the start. Once finished, the checksum of the new
+     * definition is recorded in the {@value SchemaLedger#TABLE} table and later calls return immediately.
      * @param connection The connection to the database.
      * @throws SQLException if a database access error occurs or the method is called on a closed connection.
      */
@@ -42,64 +124,364 @@ public class Migration {
             System.out.println("[Migration] There are no Changes!");
             return;
         }
-        System.out.println("[Migration] Creating legacy Table!");
-        String createLegacyQuery = "CREATE TABLE IF NOT EXISTS legacy_" + tableName + "(" + outdatedTable + ")";
-        PreparedStatement statement = connection.prepareStatement(createLegacyQuery);
-        statement.executeUpdate();
-
-        System.out.println("[Migration] Inserting legacy Table!");
-        String copyLegacyDataQuery = "INSERT INTO legacy_" + tableName + " SELECT * FROM " + tableName;
-        statement = connection.prepareStatement(copyLegacyDataQuery);
-        statement.execute();
-
-        System.out.println("[Migration] Drop old Table!");
-        String dropOldTableQuery = "DROP TABLE " + tableName;
-        statement = connection.prepareStatement(dropOldTableQuery);
-        statement.executeUpdate();
-
-        System.out.println("[Migration] Creating new Table!");
-        String createNewTableQuery = "CREATE TABLE IF NOT EXISTS " + tableName + " (" + table + ")";
-        statement = connection.prepareStatement(createNewTableQuery);
-        statement.executeUpdate();
-
-        System.out.println("[Migration] Migrating!");
-        String selectQuery = "SELECT * FROM legacy_" + tableName;
-        PreparedStatement selectStatement = connection.prepareStatement(selectQuery);
-        ResultSet set = selectStatement.executeQuery();
-
-        ResultSetMetaData metaData = set.getMetaData();
-        int columnCount = metaData.getColumnCount();
-
-        StringBuilder builder = new StringBuilder("INSERT INTO " + tableName + "(");
-        for(int i = 1; i <= columnCount; i++) {
-            if(i > 1) {
-                builder.append(", ");
+        String checksum = getChecksum();
+        if (checksum.equals(SchemaLedger.read(connection, tableName))) {
+            System.out.println("[Migration] Table " + tableName + " is up to date!");
+            return;
+        }
+        String legacyTable = "legacy_" + tableName;
+        createStateTable(connection);
+        String phase = readPhase(connection);
+        if (phase == null && this.inPlace && migrateInPlace(connection, checksum)) {
+            System.out.println("[Migration] Migration Succeed!");
+            return;
+        }
+        if (phase == null) {
+            execute(connection, "DROP TABLE IF EXISTS " + legacyTable);
+
+            System.out.println("[Migration] Creating legacy Table!");
+            execute(connection, "CREATE TABLE IF NOT EXISTS " + legacyTable + "(" + outdatedTable + ")");
+
+            System.out.println("[Migration] Inserting legacy Table!");
+            execute(connection, "INSERT INTO " + legacyTable + " SELECT * FROM " + tableName);
+            phase = writePhase(connection, PHASE_LEGACY);
+        } else {
+            System.out.println("[Migration] Resuming interrupted Migration!");
+        }
+
+        if (phase.equals(PHASE_LEGACY)) {
+            System.out.println("[Migration] Drop old Table!");
+            execute(connection, "DROP TABLE IF EXISTS " + tableName);
+
+            System.out.println("[Migration] Creating new Table!");
+            execute(connection, "CREATE TABLE IF NOT EXISTS " + tableName + " (" + table + ")");
+            writePhase(connection, PHASE_COPY);
+        }
+
+        if (tableExists(connection, legacyTable)) {
+            System.out.println("[Migration] Migrating!");
+            copy(connection, legacyTable);
+        } else {
+            // An interrupted run already copied the rows and dropped the legacy table, only the ledger is missing
+            System.out.println("[Migration] Legacy Table is gone, finishing the Migration!");
+        }
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            writePhase(connection, null);
+            SchemaLedger.record(connection, tableName, checksum);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+
+        // Dropped only after the ledger is written, so an interruption never leaves a copy phase without its source
+        System.out.println("[Migration] Drop legacy Table!");
+        execute(connection, "DROP TABLE IF EXISTS " + legacyTable);
+        System.out.println("[Migration] Migration Succeed!");
+    }
+
+    /**
+     * Applies the change with ALTER TABLE statements if the dialect supports it.
+     * @return Whether the change was applied, otherwise the table has to be copied.
+     */
+    private boolean migrateInPlace(Connection connection, String checksum) throws SQLException {
+        DatabaseType dialect = SchemaDiff.dialect(connection);
+        List<String> statements = SchemaDiff.between(outdatedTable, table).toStatements(tableName, dialect);
+        if (statements == null) {
+            System.out.println("[Migration] The change cannot be applied in place, copying the table!");
+            return false;
+        }
+        if (dialect != DatabaseType.SQLITE) {
+            return migrateInPlaceWithoutTransaction(connection, statements, checksum);
+        }
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            for (String statement : statements) {
+                System.out.println("[Migration] " + statement);
+                execute(connection, statement);
+            }
+            SchemaLedger.record(connection, tableName, checksum);
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            connection.rollback();
+            System.out.println("[Migration] In place change failed, copying the table: " + e.getMessage());
+            return false;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Applies the change on a database committing every ALTER TABLE implicitly, like MySQL. Once a statement
+     * succeeded the table no longer matches the old definition, so the copy is no longer a fallback and the
+     * ledger is recorded in a step of its own; if that fails, the migration fails.
+     * @return Whether the change was applied, false if the first statement failed and the table has to be copied.
+     */
+    private boolean migrateInPlaceWithoutTransaction(Connection connection, List<String> statements, String checksum) throws SQLException {
+        int applied = 0;
+        try {
+            for (String statement : statements) {
+                System.out.println("[Migration] " + statement);
+                execute(connection, statement);
+                applied++;
+            }
+        } catch (SQLException e) {
+            if (applied > 0) throw e;
+            System.out.println("[Migration] In place change failed, copying the table: " + e.getMessage());
+            return false;
+        }
+        SchemaLedger.record(connection, tableName, checksum);
+        if (!connection.getAutoCommit()) connection.commit();
+        return true;
+    }
+
+    private void copy(Connection connection, String legacyTable) throws SQLException {
+        List<String> common = commonColumns(connection, legacyTable);
+        String columns = String.join(", ", common);
+        List<String> key = keyColumns(connection, common);
+        long total = count(connection, legacyTable);
+        long copied = count(connection, tableName);
+        if (copied > 0 && key.isEmpty()) {
+            // Without a key the rows of an interrupted run cannot be matched reliably, so the copy starts over
+            System.out.println("[Migration] " + tableName + " has no primary key, restarting the copy!");
+            execute(connection, "DELETE FROM " + tableName);
+            copied = 0;
+        }
+        long start = System.nanoTime();
+        long resumed = copied;
+        if (copied == 0 && copyServerSide(connection, legacyTable, columns)) {
+            printProgress(total, total, 0, start);
+            return;
+        }
+
+        // Rows are copied in key order, so the rows committed by an interrupted run are the ones up to the highest key
+        Object[] lastKey = copied > 0 ? lastKey(connection, key) : null;
+        StringBuilder query = new StringBuilder("SELECT ").append(columns).append(" FROM ").append(legacyTable);
+        if (lastKey != null) query.append(" WHERE ").append(keyAfter(key));
+        if (!key.isEmpty()) query.append(" ORDER BY ").append(String.join(", ", key));
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement select = connection.prepareStatement(query.toString());
+             PreparedStatement insert = connection.prepareStatement("INSERT INTO " + tableName + " (" + columns + ") VALUES (" + placeholders(common.size()) + ")")) {
+            select.setFetchSize(chunkSize);
+            if (lastKey != null) bindKeyAfter(select, lastKey);
+            try (ResultSet set = select.executeQuery()) {
+                int columnCount = set.getMetaData().getColumnCount();
+                int pending = 0;
+                while (set.next()) {
+                    for (int i = 1; i <= columnCount; i++) {
+                        insert.setObject(i, set.getObject(i));
+                    }
+                    insert.addBatch();
+                    if (++pending == chunkSize) {
+                        insert.executeBatch();
+                        connection.commit();
+                        copied += pending;
+                        pending = 0;
+                        printProgress(copied, total, resumed, start);
+                    }
+                }
+                if (pending > 0) {
+                    insert.executeBatch();
+                    connection.commit();
+                    copied += pending;
+                }
+            }
+            printProgress(copied, total, resumed, start);
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * Looks up the primary key of the new table.
+     * @return The key columns in key order, or an empty list if the table has no primary key
+     * or a key column is not copied from the legacy table.
+     */
+    private List<String> keyColumns(Connection connection, List<String> common) throws SQLException {
+        Map<Short, String> key = new TreeMap<>();
+        DatabaseMetaData metaData = connection.getMetaData();
+        try (ResultSet set = metaData.getPrimaryKeys(connection.getCatalog(), null, tableName)) {
+            while (set.next()) {
+                key.put(set.getShort("KEY_SEQ"), set.getString("COLUMN_NAME"));
             }
-            builder.append(metaData.getColumnName(i));
         }
-        builder.append(") VALUES (");
-        for(int i = 1; i <= columnCount; i++) {
-            if(i > 1) {
-                builder.append(", ");
+        List<String> columns = new ArrayList<>(key.size());
+        for (String column : key.values()) {
+            String match = null;
+            for (String candidate : common) {
+                if (candidate.equalsIgnoreCase(column)) match = candidate;
             }
-            builder.append("?");
-        }
-        builder.append(")");
-        statement = connection.prepareStatement(builder.toString());
-        while(set.next()) {
-            for (int i = 1; i <= columnCount; i++) {
-                Object value = set.getObject(i);
-                statement.setObject(i, value);
+            if (match == null) return Collections.emptyList();
+            columns.add(match);
+        }
+        return columns;
+    }
+
+    /**
+     * @return The key of the last copied row, the highest key in the new table.
+     */
+    private Object[] lastKey(Connection connection, List<String> key) throws SQLException {
+        StringBuilder order = new StringBuilder();
+        for (String column : key) {
+            if (order.length() > 0) order.append(", ");
+            order.append(column).append(" DESC");
+        }
+        try (PreparedStatement statement = connection.prepareStatement("SELECT " + String.join(", ", key) + " FROM " + tableName + " ORDER BY " + order + " LIMIT 1");
+             ResultSet set = statement.executeQuery()) {
+            if (!set.next()) return null;
+            Object[] values = new Object[key.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = set.getObject(i + 1);
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Builds the condition selecting the rows with a key greater than the bound one,
+     * as {@code (a > ?) OR (a = ? AND b > ?)} so it also works without row value comparisons.
+     */
+    private String keyAfter(List<String> key) {
+        StringBuilder condition = new StringBuilder();
+        for (int i = 0; i < key.size(); i++) {
+            if (i > 0) condition.append(" OR ");
+            condition.append('(');
+            for (int j = 0; j < i; j++) {
+                condition.append(key.get(j)).append(" = ? AND ");
             }
+            condition.append(key.get(i)).append(" > ?)");
+        }
+        return condition.toString();
+    }
+
+    private void bindKeyAfter(PreparedStatement statement, Object[] lastKey) throws SQLException {
+        int index = 1;
+        for (int i = 0; i < lastKey.length; i++) {
+            for (int j = 0; j <= i; j++) {
+                statement.setObject(index++, lastKey[j]);
+            }
+        }
+    }
+
+    private boolean copyServerSide(Connection connection, String legacyTable, String columns) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO " + tableName + " (" + columns + ") SELECT " + columns + " FROM " + legacyTable)) {
             statement.executeUpdate();
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            connection.rollback();
+            System.out.println("[Migration] Server side copy failed, copying in chunks: " + e.getMessage());
+            return false;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private List<String> commonColumns(Connection connection, String legacyTable) throws SQLException {
+        Set<String> newColumns = new HashSet<>();
+        for (String column : columns(connection, tableName)) {
+            newColumns.add(column.toLowerCase(Locale.ROOT));
+        }
+        List<String> common = new ArrayList<>();
+        for (String column : columns(connection, legacyTable)) {
+            if (newColumns.contains(column.toLowerCase(Locale.ROOT))) {
+                common.add(column);
+            }
         }
-        statement.execute();
+        if (common.isEmpty()) throw new SQLException("The tables " + legacyTable + " and " + tableName + " have no columns in common");
+        return common;
+    }
 
-        System.out.println("[Migration] Drop legacy Table!");
-        String dropLegacyTableQuery = "DROP TABLE legacy_" + tableName;
-        statement = connection.prepareStatement(dropLegacyTableQuery);
-        statement.executeUpdate();
-        System.out.println("[Migration] Migration Succeed!");
+    private List<String> columns(Connection connection, String table) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT * FROM " + table + " WHERE 1 = 0");
+             ResultSet set = statement.executeQuery()) {
+            ResultSetMetaData metaData = set.getMetaData();
+            List<String> columns = new ArrayList<>();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                columns.add(metaData.getColumnName(i));
+            }
+            return columns;
+        }
+    }
+
+    private boolean tableExists(Connection connection, String table) throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        String escape = metaData.getSearchStringEscape();
+        // The name is a pattern, so the underscores of legacy_<table> have to be escaped
+        String pattern = escape == null || escape.isEmpty() ? table : table.replace(escape, escape + escape).replace("_", escape + "_").replace("%", escape + "%");
+        try (ResultSet set = metaData.getTables(connection.getCatalog(), null, pattern, null)) {
+            while (set.next()) {
+                if (set.getString("TABLE_NAME").equalsIgnoreCase(table)) return true;
+            }
+            return false;
+        }
+    }
+
+    private String placeholders(int count) {
+        StringBuilder builder = new StringBuilder("?");
+        for (int i = 1; i < count; i++) {
+            builder.append(", ?");
+        }
+        return builder.toString();
+    }
+
+    private long count(Connection connection, String table) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT COUNT(*) FROM " + table);
+             ResultSet set = statement.executeQuery()) {
+            return set.next() ? set.getLong(1) : 0;
+        }
+    }
+
+    private void printProgress(long copied, long total, long resumed, long start) {
+        double seconds = Math.max(System.nanoTime() - start, 1) / 1_000_000_000D;
+        System.out.printf("[Migration] Copied %d/%d rows (%.0f rows/s)%n", copied, total, (copied - resumed) / seconds);
+    }
+
+    static void createStateTable(Connection connection) throws SQLException {
+        execute(connection, "CREATE TABLE IF NOT EXISTS " + STATE_TABLE + " (table_name VARCHAR(255) NOT NULL PRIMARY KEY, phase VARCHAR(16) NOT NULL)");
+    }
+
+    private String readPhase(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("SELECT phase FROM " + STATE_TABLE + " WHERE table_name = ?")) {
+            statement.setString(1, tableName);
+            try (ResultSet set = statement.executeQuery()) {
+                return set.next() ? set.getString(1) : null;
+            }
+        }
+    }
+
+    private String writePhase(Connection connection, String phase) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + STATE_TABLE + " WHERE table_name = ?")) {
+            statement.setString(1, tableName);
+            statement.executeUpdate();
+        }
+        if (phase == null) return null;
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO " + STATE_TABLE + " (table_name, phase) VALUES (?, ?)")) {
+            statement.setString(1, tableName);
+            statement.setString(2, phase);
+            statement.executeUpdate();
+        }
+        return phase;
+    }
+
+    private static void execute(Connection connection, String sql) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.executeUpdate();
+        }
     }
 
     private boolean hasToMigrate(String t1, String t2) {
@@ -114,5 +496,12 @@ public class Migration {
     public String getTable() {
         return table;
     }
+
+    /**
+     * @return The name of the migrated table.
+     */
+    public String getTableName() {
+        return tableName;
+    }
 }
 
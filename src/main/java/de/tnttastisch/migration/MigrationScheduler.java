@@ -0,0 +1,159 @@
+package de.tnttastisch.migration;
+
+import com.zaxxer.hikari.pool.HikariPool;
+import org.slf4j.Logger;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs migrations in parallel, every one on its own pooled connection. A migration starts as soon as the
+ * migrations of the tables it {@link Migration#dependsOn(String...) depends on} finished, so independent
+ * tables never wait for each other. Tables recorded as up to date in the {@value SchemaLedger#TABLE}
+ * table are skipped without leasing a connection for them.
+ * @since = 2.1-RELEASE
+ */
+public class MigrationScheduler {
+
+    private final Logger logger;
+    private final HikariPool pool;
+    private final int parallelism;
+
+    /**
+     * Creates a scheduler.
+     * @param logger      The logger instance to log errors and messages.
+     * @param pool        The connection pool to lease the connections of the migrations from.
+     * @param parallelism The maximum number of migrations running at the same time. It is capped at the maximum
+     *                    pool size, so queued migrations do not time out waiting for a connection.
+     */
+    public MigrationScheduler(Logger logger, HikariPool pool, int parallelism) {
+        if (parallelism <= 0) throw new IllegalArgumentException("The parallelism must be positive");
+        this.logger = logger;
+        this.pool = pool;
+        this.parallelism = Math.min(parallelism, pool.config.getMaximumPoolSize());
+    }
+
+    /**
+     * Runs the given migrations. A failed migration is logged and all migrations depending on it are skipped,
+     * independent migrations still run.
+     * @param migrations The migrations to run.
+     * @return A CompletableFuture completing once every migration finished or was skipped, containing the
+     * number of failed and skipped migrations.
+     */
+    public CompletableFuture<Integer> run(Collection<Migration> migrations) {
+        Map<String, Migration> byTable = new LinkedHashMap<>();
+        for (Migration migration : migrations) {
+            if (byTable.put(migration.getTableName(), migration) != null) {
+                throw new IllegalArgumentException("There are two migrations for table " + migration.getTableName());
+            }
+        }
+        List<Migration> order = sort(byTable);
+        AtomicInteger threads = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "SQLAPI-Migration-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // The schema versions are read on the executor as well, so the caller is never blocked by the database
+        return CompletableFuture.supplyAsync(this::readChecksums, executor)
+                .thenCompose(checksums -> checksums == null
+                        ? CompletableFuture.completedFuture(byTable.size())
+                        : schedule(order, checksums, executor))
+                .whenComplete((failures, error) -> executor.shutdown());
+    }
+
+    /**
+     * Reads the recorded schema versions and prepares the {@value Migration#STATE_TABLE} table.
+     * @return The recorded checksums by table name, or null if they could not be read.
+     */
+    private Map<String, String> readChecksums() {
+        try (Connection connection = this.pool.getConnection()) {
+            Map<String, String> checksums = SchemaLedger.read(connection);
+            Migration.createStateTable(connection);
+            return checksums;
+        } catch (SQLException e) {
+            this.logger.error("A Sql error occurred while reading the schema versions: ", e);
+            return null;
+        }
+    }
+
+    /**
+     * Starts every migration which is not up to date once the migrations it depends on finished.
+     * @return A CompletableFuture containing the number of failed and skipped migrations.
+     */
+    private CompletableFuture<Integer> schedule(List<Migration> order, Map<String, String> checksums, ExecutorService executor) {
+        AtomicInteger failures = new AtomicInteger();
+        Map<String, CompletableFuture<Void>> futures = new HashMap<>();
+        for (Migration migration : order) {
+            if (migration.isUpToDate(checksums)) {
+                futures.put(migration.getTableName(), CompletableFuture.completedFuture(null));
+                continue;
+            }
+            List<CompletableFuture<Void>> dependencies = new ArrayList<>();
+            for (String dependency : migration.getDependencies()) {
+                CompletableFuture<Void> future = futures.get(dependency);
+                if (future != null) dependencies.add(future);
+            }
+            CompletableFuture<Void> future = CompletableFuture.allOf(dependencies.toArray(new CompletableFuture<?>[0]))
+                    .whenComplete((ignored, error) -> {
+                        if (error != null) {
+                            failures.incrementAndGet();
+                            this.logger.error("Skipped the migration of table " + migration.getTableName() + " because a table it depends on failed");
+                        }
+                    })
+                    .thenRunAsync(() -> {
+                        try (Connection connection = this.pool.getConnection()) {
+                            migration.migrate(connection);
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                            this.logger.error(String.format("[Migration] An error occurred while trying to migrate table %s: ", migration.getTableName()), e);
+                            throw new CompletionException(e);
+                        }
+                    }, executor);
+            futures.put(migration.getTableName(), future);
+        }
+        return CompletableFuture.allOf(futures.values().stream()
+                        .map(future -> future.handle((ignored, error) -> null))
+                        .toArray(CompletableFuture<?>[]::new))
+                .thenApply(ignored -> failures.get());
+    }
+
+    /**
+     * Orders the migrations so every migration comes after the migrations it depends on.
+     * Dependencies on tables without a migration are ignored.
+     */
+    private List<Migration> sort(Map<String, Migration> byTable) {
+        List<Migration> order = new ArrayList<>(byTable.size());
+        Map<String, Boolean> visited = new HashMap<>();
+        for (Migration migration : byTable.values()) {
+            visit(migration, byTable, visited, order);
+        }
+        return order;
+    }
+
+    private void visit(Migration migration, Map<String, Migration> byTable, Map<String, Boolean> visited, List<Migration> order) {
+        Boolean done = visited.get(migration.getTableName());
+        if (Boolean.TRUE.equals(done)) return;
+        if (Boolean.FALSE.equals(done)) {
+            throw new IllegalArgumentException("The migration of table " + migration.getTableName() + " has a cyclic dependency");
+        }
+        visited.put(migration.getTableName(), Boolean.FALSE);
+        for (String dependency : migration.getDependencies()) {
+            Migration other = byTable.get(dependency);
+            if (other != null) visit(other, byTable, visited, order);
+        }
+        visited.put(migration.getTableName(), Boolean.TRUE);
+        order.add(migration);
+    }
+}
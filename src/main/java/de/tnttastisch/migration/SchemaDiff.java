@@ -0,0 +1,285 @@
+package de.tnttastisch.migration;
+
+import de.tnttastisch.helpers.DatabaseType;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The difference between two versions of a table definition, as passed to {@link Migration}.
+ * Definitions are split into columns and table constraints, so the change can be applied with
+ * {@code ALTER TABLE} statements instead of copying the whole table.
+ * @since = 2.1-RELEASE
+ */
+public final class SchemaDiff {
+
+    private static final String[] CONSTRAINT_KEYWORDS = {"primary", "unique", "foreign", "constraint", "check", "key", "index", "fulltext", "spatial"};
+
+    private final Map<String, Column> oldColumns;
+    private final Map<String, Column> newColumns;
+    private final List<String> oldConstraints;
+    private final List<String> newConstraints;
+
+    private SchemaDiff(String oldDefinition, String newDefinition) {
+        this.oldColumns = new LinkedHashMap<>();
+        this.oldConstraints = new ArrayList<>();
+        parse(oldDefinition, this.oldColumns, this.oldConstraints);
+        this.newColumns = new LinkedHashMap<>();
+        this.newConstraints = new ArrayList<>();
+        parse(newDefinition, this.newColumns, this.newConstraints);
+    }
+
+    /**
+     * Computes the difference between two table definitions.
+     * @param oldDefinition The column definitions of the current table.
+     * @param newDefinition The column definitions the table should have.
+     * @return The difference.
+     */
+    public static SchemaDiff between(String oldDefinition, String newDefinition) {
+        return new SchemaDiff(oldDefinition, newDefinition);
+    }
+
+    /**
+     * Determines the SQL dialect of a connection.
+     * @param connection The connection to the database.
+     * @return The database type, or null if the database is not supported.
+     * @throws SQLException If a database access error occurs.
+     */
+    public static DatabaseType dialect(Connection connection) throws SQLException {
+        String product = connection.getMetaData().getDatabaseProductName().toLowerCase(Locale.ROOT);
+        if (product.contains("sqlite")) return DatabaseType.SQLITE;
+        if (product.contains("mysql") || product.contains("mariadb")) return DatabaseType.MYSQL;
+        return null;
+    }
+
+    /**
+     * @return The names of the columns which only exist in the new definition.
+     */
+    public List<String> getAddedColumns() {
+        List<String> added = new ArrayList<>();
+        for (Map.Entry<String, Column> entry : this.newColumns.entrySet()) {
+            if (!this.oldColumns.containsKey(entry.getKey())) added.add(entry.getValue().name);
+        }
+        return added;
+    }
+
+    /**
+     * @return The names of the columns which only exist in the old definition.
+     */
+    public List<String> getDroppedColumns() {
+        List<String> dropped = new ArrayList<>();
+        for (Map.Entry<String, Column> entry : this.oldColumns.entrySet()) {
+            if (!this.newColumns.containsKey(entry.getKey())) dropped.add(entry.getValue().name);
+        }
+        return dropped;
+    }
+
+    /**
+     * @return The names of the columns which exist in both definitions with a different type or constraints.
+     */
+    public List<String> getModifiedColumns() {
+        List<String> modified = new ArrayList<>();
+        for (Map.Entry<String, Column> entry : this.newColumns.entrySet()) {
+            Column old = this.oldColumns.get(entry.getKey());
+            if (old != null && !old.normalized.equals(entry.getValue().normalized)) modified.add(entry.getValue().name);
+        }
+        return modified;
+    }
+
+    /**
+     * Computes the statements changing the table in place. MySQL receives a single {@code ALTER TABLE} with all
+     * changes, so it is applied atomically. SQLite can only append columns and drop plain columns, it has no
+     * way to change the definition of an existing column.
+     * @param tableName The name of the table.
+     * @param type      The SQL dialect.
+     * @return The statements, empty if the definitions are equivalent, or null if the change needs a full copy.
+     */
+    public List<String> toStatements(String tableName, DatabaseType type) {
+        if (type == null || !normalize(this.oldConstraints).equals(normalize(this.newConstraints))) return null;
+        List<String> dropped = getDroppedColumns();
+        List<String> added = getAddedColumns();
+        List<String> modified = getModifiedColumns();
+        if (dropped.isEmpty() && added.isEmpty() && modified.isEmpty()) {
+            return keptInOrder() ? Collections.emptyList() : null;
+        }
+        if (!keptInOrder()) return null;
+        return type == DatabaseType.MYSQL ? mysql(tableName, dropped, modified) : sqlite(tableName, dropped, added, modified);
+    }
+
+    private List<String> mysql(String tableName, List<String> dropped, List<String> modified) {
+        List<String> clauses = new ArrayList<>();
+        for (String column : dropped) {
+            clauses.add("DROP COLUMN " + column);
+        }
+        String previous = null;
+        for (Map.Entry<String, Column> entry : this.newColumns.entrySet()) {
+            Column column = entry.getValue();
+            if (!this.oldColumns.containsKey(entry.getKey())) {
+                clauses.add("ADD COLUMN " + column.name + " " + column.definition + (previous == null ? " FIRST" : " AFTER " + previous));
+            } else if (modified.contains(column.name)) {
+                clauses.add("MODIFY COLUMN " + column.name + " " + column.definition);
+            }
+            previous = column.name;
+        }
+        return Collections.singletonList("ALTER TABLE " + tableName + " " + String.join(", ", clauses));
+    }
+
+    private List<String> sqlite(String tableName, List<String> dropped, List<String> added, List<String> modified) {
+        if (!modified.isEmpty()) return null;
+        int kept = this.newColumns.size() - added.size();
+        int index = 0;
+        for (String key : this.newColumns.keySet()) {
+            // SQLite appends added columns, any other position changes the column order
+            boolean appended = index++ >= kept;
+            if (appended == this.oldColumns.containsKey(key)) return null;
+        }
+        List<String> statements = new ArrayList<>();
+        for (String name : dropped) {
+            Column column = this.oldColumns.get(key(name));
+            if (hasKeyword(column.normalized, "primary key", "unique", "references") || referencedByConstraint(name)) return null;
+            statements.add("ALTER TABLE " + tableName + " DROP COLUMN " + name);
+        }
+        for (String name : added) {
+            Column column = this.newColumns.get(key(name));
+            String definition = column.normalized;
+            if (hasKeyword(definition, "primary key", "unique", "default (", "default current_", " stored")) return null;
+            if (hasKeyword(definition, "not null") && (!hasKeyword(definition, "default") || hasKeyword(definition, "default null"))) return null;
+            statements.add("ALTER TABLE " + tableName + " ADD COLUMN " + column.name + " " + column.definition);
+        }
+        return statements;
+    }
+
+    /**
+     * Checks whether the columns present in both definitions keep their relative order.
+     */
+    private boolean keptInOrder() {
+        List<String> oldOrder = new ArrayList<>(this.oldColumns.keySet());
+        oldOrder.retainAll(this.newColumns.keySet());
+        List<String> newOrder = new ArrayList<>(this.newColumns.keySet());
+        newOrder.retainAll(this.oldColumns.keySet());
+        return oldOrder.equals(newOrder);
+    }
+
+    private boolean referencedByConstraint(String column) {
+        String name = key(column);
+        for (String constraint : this.oldConstraints) {
+            for (String token : normalize(constraint).split("[^a-z0-9_$]+")) {
+                if (token.equals(name)) return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasKeyword(String definition, String... keywords) {
+        for (String keyword : keywords) {
+            if (definition.contains(keyword)) return true;
+        }
+        return false;
+    }
+
+    private static void parse(String definition, Map<String, Column> columns, List<String> constraints) {
+        for (String part : split(definition)) {
+            String[] tokens = part.split("\\s+", 2);
+            String first = tokens[0].toLowerCase(Locale.ROOT);
+            boolean constraint = false;
+            for (String keyword : CONSTRAINT_KEYWORDS) {
+                if (first.equals(keyword) || first.startsWith(keyword + "(")) {
+                    constraint = true;
+                    break;
+                }
+            }
+            if (constraint) {
+                constraints.add(part);
+            } else {
+                Column column = new Column(tokens[0], tokens.length > 1 ? tokens[1].trim() : "");
+                columns.put(key(tokens[0]), column);
+            }
+        }
+    }
+
+    /**
+     * Splits a definition at the commas which are neither inside parentheses nor inside quotes.
+     */
+    private static List<String> split(String definition) {
+        List<String> parts = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int depth = 0;
+        char quote = 0;
+        for (char c : definition.toCharArray()) {
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+            } else if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                addPart(parts, current);
+                continue;
+            }
+            current.append(c);
+        }
+        addPart(parts, current);
+        return parts;
+    }
+
+    private static void addPart(List<String> parts, StringBuilder current) {
+        String part = current.toString().trim();
+        if (!part.isEmpty()) parts.add(part);
+        current.setLength(0);
+    }
+
+    private static String key(String name) {
+        return name.replaceAll("[`\"\\[\\]]", "").toLowerCase(Locale.ROOT);
+    }
+
+    private static List<String> normalize(List<String> parts) {
+        List<String> normalized = new ArrayList<>(parts.size());
+        for (String part : parts) {
+            normalized.add(normalize(part));
+        }
+        return normalized;
+    }
+
+    /**
+     * Collapses whitespace, drops it around parentheses and commas and lower-cases everything outside string literals.
+     */
+    private static String normalize(String part) {
+        StringBuilder builder = new StringBuilder(part.length());
+        boolean literal = false;
+        boolean space = false;
+        for (char c : part.trim().toCharArray()) {
+            if (c == '\'') literal = !literal;
+            if (!literal && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space) {
+                char last = builder.length() == 0 ? ',' : builder.charAt(builder.length() - 1);
+                if ("(),".indexOf(c) < 0 && last != '(' && last != ',') builder.append(' ');
+                space = false;
+            }
+            builder.append(literal ? c : Character.toLowerCase(c));
+        }
+        return builder.toString();
+    }
+
+    private static final class Column {
+        private final String name;
+        private final String definition;
+        private final String normalized;
+
+        private Column(String name, String definition) {
+            this.name = name;
+            this.definition = definition;
+            this.normalized = normalize(definition);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package de.tnttastisch.migration;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The persisted schema version of every migrated table. After a migration finished, the checksum of the
+ * table definition it produced is recorded in the {@value #TABLE} table, so later startups can skip
+ * the table without inspecting it.
+ * @since = 2.1-RELEASE
+ */
+public final class SchemaLedger {
+
+    /**
+     * The table storing the checksum of every migrated table.
+     */
+    public static final String TABLE = "sqlapi_schema_version";
+
+    private SchemaLedger() {
+    }
+
+    /**
+     * Computes the checksum of a table definition. Whitespace differences do not change the checksum.
+     * @param definition The column definitions of the table.
+     * @return The hex encoded SHA-256 checksum.
+     */
+    public static String checksum(String definition) {
+        String normalized = definition.trim().replaceAll("\\s+", " ");
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(normalized.getBytes(StandardCharsets.UTF_8));
+            StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported by this runtime", e);
+        }
+    }
+
+    /**
+     * Creates the ledger table if it does not exist yet.
+     * @param connection The connection to the database.
+     * @throws SQLException If a database access error occurs.
+     */
+    public static void createTable(Connection connection) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("CREATE TABLE IF NOT EXISTS " + TABLE
+                + " (table_name VARCHAR(255) NOT NULL PRIMARY KEY, checksum CHAR(64) NOT NULL, migrated_at BIGINT NOT NULL)")) {
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * Reads the recorded checksums of all tables.
+     * @param connection The connection to the database.
+     * @return The checksums by table name.
+     * @throws SQLException If a database access error occurs.
+     */
+    public static Map<String, String> read(Connection connection) throws SQLException {
+        createTable(connection);
+        Map<String, String> checksums = new HashMap<>();
+        try (PreparedStatement statement = connection.prepareStatement("SELECT table_name, checksum FROM " + TABLE);
+             ResultSet set = statement.executeQuery()) {
+            while (set.next()) {
+                checksums.put(set.getString(1), set.getString(2));
+            }
+        }
+        return checksums;
+    }
+
+    /**
+     * Reads the recorded checksum of a table.
+     * @param connection The connection to the database.
+     * @param tableName  The name of the table.
+     * @return The checksum, or null if the table was never migrated.
+     * @throws SQLException If a database access error occurs.
+     */
+    public static String read(Connection connection, String tableName) throws SQLException {
+        createTable(connection);
+        try (PreparedStatement statement = connection.prepareStatement("SELECT checksum FROM " + TABLE + " WHERE table_name = ?")) {
+            statement.setString(1, tableName);
+            try (ResultSet set = statement.executeQuery()) {
+                return set.next() ? set.getString(1) : null;
+            }
+        }
+    }
+
+    /**
+     * Records the checksum of a table after it was migrated.
+     * @param connection The connection to the database.
+     * @param tableName  The name of the table.
+     * @param checksum   The checksum of the table definition.
+     * @throws SQLException If a database access error occurs.
+     */
+    public static void record(Connection connection, String tableName, String checksum) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("DELETE FROM " + TABLE + " WHERE table_name = ?")) {
+            statement.setString(1, tableName);
+            statement.executeUpdate();
+        }
+        try (PreparedStatement statement = connection.prepareStatement("INSERT INTO " + TABLE + " (table_name, checksum, migrated_at) VALUES (?, ?, ?)")) {
+            statement.setString(1, tableName);
+            statement.setString(2, checksum);
+            statement.setLong(3, System.currentTimeMillis());
+            statement.executeUpdate();
+        }
+    }
+}
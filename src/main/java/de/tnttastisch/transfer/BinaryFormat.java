@@ -0,0 +1,256 @@
+package de.tnttastisch.transfer;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+
+/**
+ * A compact row format keeping the types of the values. The file starts with the magic bytes {@code SQLB},
+ * a version byte and the column labels, followed by the rows until the end of the file. Every value is a tag
+ * byte followed by its payload; integers and lengths are variable-length, so small numbers take one byte.
+ */
+final class BinaryFormat {
+
+    private static final byte[] MAGIC = {'S', 'Q', 'L', 'B'};
+    private static final byte VERSION = 1;
+
+    private static final byte NULL = 0;
+    private static final byte LONG = 1;
+    private static final byte DOUBLE = 2;
+    private static final byte STRING = 3;
+    private static final byte BYTES = 4;
+    private static final byte TRUE = 5;
+    private static final byte FALSE = 6;
+    private static final byte DECIMAL = 7;
+    private static final byte DATE = 8;
+    private static final byte TIME = 9;
+    private static final byte TIMESTAMP = 10;
+
+    private BinaryFormat() {
+    }
+
+    static final class Writer extends RowWriter {
+
+        Writer(WritableByteChannel channel) {
+            super(channel);
+        }
+
+        @Override
+        void writeHeader(String[] columns) throws IOException {
+            put(MAGIC);
+            ensure(1);
+            this.buffer.put(VERSION);
+            putVarLong(columns.length);
+            for (String column : columns) {
+                putString(column);
+            }
+        }
+
+        @Override
+        void writeRow(ResultSet result, int columns) throws SQLException, IOException {
+            for (int column = 1; column <= columns; column++) {
+                writeValue(normalize(result.getObject(column)));
+            }
+        }
+
+        private void writeValue(Object value) throws IOException {
+            ensure(1);
+            if (value == null) {
+                this.buffer.put(NULL);
+            } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                this.buffer.put(LONG);
+                putVarLong(zigZag(((Number) value).longValue()));
+            } else if (value instanceof Double || value instanceof Float) {
+                this.buffer.put(DOUBLE);
+                ensure(8);
+                this.buffer.putDouble(((Number) value).doubleValue());
+            } else if (value instanceof Boolean) {
+                this.buffer.put((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof BigDecimal || value instanceof BigInteger) {
+                this.buffer.put(DECIMAL);
+                putString(value.toString());
+            } else if (value instanceof byte[]) {
+                this.buffer.put(BYTES);
+                putVarLong(((byte[]) value).length);
+                put((byte[]) value);
+            } else if (value instanceof Timestamp) {
+                this.buffer.put(TIMESTAMP);
+                Timestamp timestamp = (Timestamp) value;
+                // The milliseconds are part of the nanoseconds, so only whole seconds are stored separately
+                putVarLong(zigZag(Math.floorDiv(timestamp.getTime(), 1000)));
+                putVarLong(timestamp.getNanos());
+            } else if (value instanceof Date) {
+                this.buffer.put(DATE);
+                putVarLong(zigZag(((Date) value).getTime()));
+            } else if (value instanceof Time) {
+                this.buffer.put(TIME);
+                putVarLong(zigZag(((Time) value).getTime()));
+            } else {
+                this.buffer.put(STRING);
+                putString(value.toString());
+            }
+        }
+
+        private void putString(String value) throws IOException {
+            putVarLong(utf8Length(value));
+            putUtf8(value);
+        }
+
+        private void putVarLong(long value) throws IOException {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                this.buffer.put((byte) (value & 0x7F | 0x80));
+                value >>>= 7;
+            }
+            this.buffer.put((byte) value);
+        }
+
+        private static long zigZag(long value) {
+            return value << 1 ^ value >> 63;
+        }
+    }
+
+    static final class Reader extends RowReader {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        Reader(ReadableByteChannel channel) {
+            this.channel = channel;
+            ((Buffer) this.buffer).limit(0);
+        }
+
+        @Override
+        String[] readHeader() throws IOException {
+            if (!fill(1)) return null;
+            require(MAGIC.length + 1);
+            for (byte b : MAGIC) {
+                if (this.buffer.get() != b) throw new IOException("The file is not in the binary transfer format");
+            }
+            byte version = this.buffer.get();
+            if (version != VERSION) throw new IOException("The binary transfer format version " + version + " is not supported");
+            String[] columns = new String[(int) getVarLong()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = getString();
+            }
+            return columns;
+        }
+
+        @Override
+        boolean readRow(Object[] values) throws IOException {
+            if (!fill(1)) return false;
+            for (int column = 0; column < values.length; column++) {
+                values[column] = readValue();
+            }
+            return true;
+        }
+
+        private Object readValue() throws IOException {
+            require(1);
+            byte tag = this.buffer.get();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case LONG:
+                    return unZigZag(getVarLong());
+                case DOUBLE:
+                    require(8);
+                    return this.buffer.getDouble();
+                case STRING:
+                    return getString();
+                case BYTES:
+                    return getBytes((int) getVarLong());
+                case TRUE:
+                    return Boolean.TRUE;
+                case FALSE:
+                    return Boolean.FALSE;
+                case DECIMAL:
+                    return new BigDecimal(getString());
+                case DATE:
+                    return new Date(unZigZag(getVarLong()));
+                case TIME:
+                    return new Time(unZigZag(getVarLong()));
+                case TIMESTAMP:
+                    Timestamp timestamp = new Timestamp(unZigZag(getVarLong()) * 1000);
+                    timestamp.setNanos((int) getVarLong());
+                    return timestamp;
+                default:
+                    throw new IOException("Unknown value tag " + tag);
+            }
+        }
+
+        private String getString() throws IOException {
+            int length = (int) getVarLong();
+            if (length > this.buffer.capacity()) {
+                return new String(getBytes(length), StandardCharsets.UTF_8);
+            }
+            require(length);
+            String value = new String(this.buffer.array(), this.buffer.position(), length, StandardCharsets.UTF_8);
+            ((Buffer) this.buffer).position(this.buffer.position() + length);
+            return value;
+        }
+
+        private byte[] getBytes(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                if (!fill(1)) throw new EOFException("The file ends inside a value");
+                int chunk = Math.min(length - offset, this.buffer.remaining());
+                this.buffer.get(bytes, offset, chunk);
+                offset += chunk;
+            }
+            return bytes;
+        }
+
+        private long getVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                require(1);
+                byte b = this.buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IOException("Malformed variable-length number");
+        }
+
+        private static long unZigZag(long value) {
+            return value >>> 1 ^ -(value & 1);
+        }
+
+        private void require(int bytes) throws IOException {
+            if (!fill(bytes)) throw new EOFException("The file ends inside a row");
+        }
+
+        /**
+         * Reads from the channel until the given number of bytes is buffered.
+         * @return Whether the bytes are available, false at the end of the file.
+         */
+        private boolean fill(int bytes) throws IOException {
+            if (this.buffer.remaining() >= bytes) return true;
+            this.buffer.compact();
+            try {
+                while (this.buffer.position() < bytes) {
+                    if (this.channel.read(this.buffer) < 0) return false;
+                }
+                return true;
+            } finally {
+                ((Buffer) this.buffer).flip();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.channel.close();
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package de.tnttastisch.transfer;
+
+import de.tnttastisch.helpers.DatabaseCommand;
+import de.tnttastisch.helpers.DatabaseType;
+import de.tnttastisch.helpers.Row;
+import de.tnttastisch.helpers.RowMapper;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+/**
+ * Moves large tables between the database and files without holding more than a chunk of rows in memory.
+ * <ul>
+ *     <li>Exports stream a query result through a buffered file channel while the rows are read.
+ *     {@link #exportTable(String, String, Path, TransferFormat)} splits a table by key ranges and exports
+ *     the ranges on parallel connections.</li>
+ *     <li>Imports read the file on their own thread and insert chunks of rows as JDBC batches, each chunk in
+ *     its own transaction, with up to the configured number of chunks running at the same time. On MySQL a
+ *     CSV file can be sent with {@code LOAD DATA LOCAL INFILE} instead.</li>
+ * </ul>
+ * SQL errors are logged by the command, I/O errors by the transfer; both complete the future with null.
+ * On MySQL exports only stream with a fetch size of {@link Integer#MIN_VALUE} or {@code useCursorFetch=true},
+ * see {@link DatabaseCommand#setFetchSize(int)}.
+ * @since = 2.1-RELEASE
+ */
+public class BulkTransfer {
+
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z0-9_$]+");
+
+    private final Logger logger;
+    private final DatabaseCommand command;
+    private final int parallelism;
+    private int chunkSize = 10000;
+    private IProgressListener progressListener;
+    private boolean localInfile;
+
+    /**
+     * Creates a bulk transfer.
+     * @param logger      The logger instance to log errors and messages.
+     * @param command     The command running the statements of the transfer.
+     * @param parallelism The maximum number of key ranges exported or chunks imported at the same time.
+     */
+    public BulkTransfer(Logger logger, DatabaseCommand command, int parallelism) {
+        if (parallelism <= 0) throw new IllegalArgumentException("The parallelism must be positive");
+        this.logger = logger;
+        this.command = command;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the number of rows imported per transaction, which is also the interval of progress reports.
+     * @param chunkSize The number of rows per chunk, must be positive.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("The chunk size must be positive");
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets the listener receiving the progress of transfers started afterwards.
+     * @param progressListener The progress listener, or null to disable progress reports.
+     */
+    public void setProgressListener(IProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Sets whether CSV imports on MySQL use {@code LOAD DATA LOCAL INFILE}, which parses the file on the server
+     * in a single statement. The connection needs {@code allowLoadLocalInfile=true}, see
+     * {@link de.tnttastisch.SQLFactory#setAllowLoadLocalInfile(boolean)}, and the server {@code local_infile=ON}.
+     * @param localInfile Whether {@code LOAD DATA LOCAL INFILE} should be used.
+     */
+    public void setLocalInfile(boolean localInfile) {
+        this.localInfile = localInfile;
+    }
+
+    /**
+     * Exports the result of a query into a file asynchronously, writing every row while it is read.
+     * An empty result creates an empty file.
+     * @param query     The SQL query to execute.
+     * @param file      The file to create or overwrite.
+     * @param format    The file format.
+     * @param arguments The arguments to be set in the prepared statement.
+     * @return A CompletableFuture containing the number of exported rows, or null if the export failed.
+     */
+    public CompletableFuture<Long> export(String query, Path file, TransferFormat format, Object... arguments) {
+        Progress progress = new Progress(this.progressListener);
+        return exportPart(query, file, format, progress, arguments).thenApply(part -> {
+            if (part == null) return null;
+            progress.finish();
+            return part.rows;
+        });
+    }
+
+    /**
+     * Exports a table into a file asynchronously. The range of the integral key column is split into one range per
+     * degree of parallelism, every range is exported into a part file on its own connection, and the part files
+     * are appended to the file afterwards. Rows with a null key belong to the first range.
+     * @param table     The name of the table.
+     * @param keyColumn The integral column splitting the table, usually the primary key.
+     * @param file      The file to create or overwrite.
+     * @param format    The file format.
+     * @return A CompletableFuture containing the number of exported rows, or null if the export failed.
+     */
+    public CompletableFuture<Long> exportTable(String table, String keyColumn, Path file, TransferFormat format) {
+        String query = "SELECT * FROM " + table;
+        if (this.parallelism == 1) return export(query, file, format);
+        return this.command.queryRows("SELECT MIN(" + keyColumn + "), MAX(" + keyColumn + ") FROM " + table).thenCompose(bounds -> {
+            if (bounds == null) return CompletableFuture.completedFuture(null);
+            Row row = bounds.get(0);
+            if (!(row.getObject(1) instanceof Number) || !(row.getObject(2) instanceof Number)) {
+                return export(query, file, format);
+            }
+            long min = ((Number) row.getObject(1)).longValue();
+            long max = ((Number) row.getObject(2)).longValue();
+            // A span wider than a long overflows to a negative value and is exported at once
+            long span = max - min + 1;
+            if (span <= 1) return export(query, file, format);
+            int parts = (int) Math.min(this.parallelism, span);
+            long step = (span + parts - 1) / parts;
+            Progress progress = new Progress(this.progressListener);
+            List<CompletableFuture<Part>> futures = new ArrayList<>();
+            for (int i = 0; i < parts; i++) {
+                long from = min + i * step;
+                long to = Math.min(max, from + step - 1);
+                Path part = file.resolveSibling(file.getFileName() + ".part" + i);
+                if (i == 0) {
+                    futures.add(exportPart(query + " WHERE " + keyColumn + " <= ? OR " + keyColumn + " IS NULL", part, format, progress, new Object[]{to}));
+                } else if (i == parts - 1) {
+                    futures.add(exportPart(query + " WHERE " + keyColumn + " >= ?", part, format, progress, new Object[]{from}));
+                } else {
+                    futures.add(exportPart(query + " WHERE " + keyColumn + " >= ? AND " + keyColumn + " <= ?", part, format, progress, new Object[]{from, to}));
+                }
+            }
+            return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+                List<Part> results = new ArrayList<>();
+                for (CompletableFuture<Part> future : futures) {
+                    results.add(future.join());
+                }
+                Long rows = merge(results, file);
+                if (rows != null) {
+                    progress.finish();
+                }
+                return rows;
+            });
+        });
+    }
+
+    /**
+     * Imports a file into a table asynchronously. The columns are taken from the header of the file and have
+     * to exist in the table. Every chunk is committed on its own, so a failed import keeps the chunks committed before.
+     * @param file   The file to read.
+     * @param format The file format.
+     * @param table  The name of the table.
+     * @return A CompletableFuture containing the number of imported rows, or null if the import failed.
+     */
+    public CompletableFuture<Long> importFile(Path file, TransferFormat format, String table) {
+        return CompletableFuture.supplyAsync(() -> runImport(file, format, table), runnable -> {
+            Thread thread = new Thread(runnable, "SQLAPI-Import");
+            thread.setDaemon(true);
+            thread.start();
+        });
+    }
+
+    private CompletableFuture<Part> exportPart(String query, Path file, TransferFormat format, Progress progress, Object[] arguments) {
+        RowWriter writer;
+        try {
+            writer = format.writer(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+        } catch (IOException e) {
+            this.logger.error("An error occurred while exporting into " + file + ": ", e);
+            return CompletableFuture.completedFuture(null);
+        }
+        ExportMapper mapper = new ExportMapper(writer, progress, this.chunkSize);
+        return this.command.forEach(query, this.command.getFetchSize(), mapper, ignored -> {
+        }, arguments).handle((rows, error) -> {
+            try {
+                writer.close();
+                if (rows == null) {
+                    if (error != null) {
+                        this.logger.error("An error occurred while exporting into " + file + ": ", error instanceof CompletionException ? error.getCause() : error);
+                    }
+                    return null;
+                }
+                progress.add(rows - mapper.reported, writer.getBytes() - mapper.reportedBytes);
+                return new Part(file, mapper.headerLength, rows);
+            } catch (IOException e) {
+                this.logger.error("An error occurred while exporting into " + file + ": ", e);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Appends the part files to the file, keeping only the first header, and deletes them.
+     */
+    private Long merge(List<Part> parts, Path file) {
+        try {
+            boolean failed = parts.contains(null);
+            long rows = 0;
+            if (!failed) {
+                try (FileChannel target = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    boolean header = false;
+                    for (Part part : parts) {
+                        try (FileChannel source = FileChannel.open(part.file, StandardOpenOption.READ)) {
+                            long position = header ? part.headerLength : 0;
+                            long size = source.size();
+                            while (position < size) {
+                                position += source.transferTo(position, size - position, target);
+                            }
+                        }
+                        header |= part.headerLength > 0;
+                        rows += part.rows;
+                    }
+                }
+            }
+            for (Part part : parts) {
+                if (part != null) {
+                    Files.deleteIfExists(part.file);
+                }
+            }
+            return failed ? null : rows;
+        } catch (IOException e) {
+            this.logger.error("An error occurred while exporting into " + file + ": ", e);
+            return null;
+        }
+    }
+
+    private Long runImport(Path file, TransferFormat format, String table) {
+        Progress progress = new Progress(this.progressListener);
+        Semaphore permits = new Semaphore(this.parallelism);
+        AtomicBoolean failed = new AtomicBoolean();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             RowReader reader = format.reader(channel)) {
+            String[] columns = reader.readHeader();
+            if (columns == null) return 0L;
+            for (String column : columns) {
+                if (!IDENTIFIER.matcher(column).matches()) throw new IOException("The header contains the invalid column name " + column);
+            }
+            if (this.localInfile && format == TransferFormat.CSV && this.command.getDatabaseType() == DatabaseType.MYSQL) {
+                return loadData(file, table, columns, progress);
+            }
+            String insert = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES (?" + repeat(", ?", columns.length - 1) + ")";
+            long position = 0;
+            List<Object[]> chunk = new ArrayList<>();
+            while (!failed.get()) {
+                Object[] values = new Object[columns.length];
+                boolean read = reader.readRow(values);
+                if (read) {
+                    chunk.add(values);
+                }
+                if (chunk.size() == this.chunkSize || !read && !chunk.isEmpty()) {
+                    permits.acquire();
+                    long bytes = channel.position() - position;
+                    position += bytes;
+                    List<Object[]> rows = chunk;
+                    this.command.transaction(transaction -> transaction.batch(insert, rows)).whenComplete((counts, error) -> {
+                        if (counts == null) {
+                            if (error != null) {
+                                this.logger.error("An error occurred while importing " + file + ": ", error);
+                            }
+                            failed.set(true);
+                        } else {
+                            progress.add(rows.size(), bytes);
+                        }
+                        permits.release();
+                    });
+                    chunk = new ArrayList<>();
+                }
+                if (!read) break;
+            }
+            permits.acquire(this.parallelism);
+            if (failed.get()) return null;
+            progress.finish();
+            return progress.rows;
+        } catch (IOException e) {
+            this.logger.error("An error occurred while importing " + file + ": ", e);
+            awaitChunks(permits);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    private Long loadData(Path file, String table, String[] columns, Progress progress) throws IOException {
+        String path = file.toAbsolutePath().toString().replace("\\", "\\\\").replace("'", "\\'");
+        String sql = "LOAD DATA LOCAL INFILE '" + path + "' INTO TABLE " + table + " CHARACTER SET utf8mb4"
+                + " FIELDS TERMINATED BY ',' OPTIONALLY ENCLOSED BY '\"' ESCAPED BY ''"
+                + " LINES TERMINATED BY '\\n' IGNORE 1 LINES (" + String.join(", ", columns) + ")";
+        Integer rows;
+        try {
+            rows = this.command.transaction(transaction -> transaction.update(sql)).join();
+        } catch (CompletionException e) {
+            this.logger.error("An error occurred while importing " + file + ": ", e.getCause());
+            return null;
+        }
+        progress.add(rows, Files.size(file));
+        progress.finish();
+        return progress.rows;
+    }
+
+    private void awaitChunks(Semaphore permits) {
+        try {
+            permits.acquire(this.parallelism);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuilder builder = new StringBuilder(text.length() * Math.max(0, count));
+        for (int i = 0; i < count; i++) {
+            builder.append(text);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes every row while the result is read and reports the progress once per chunk.
+     */
+    private static final class ExportMapper implements RowMapper<Void> {
+        private final RowWriter writer;
+        private final Progress progress;
+        private final int chunkSize;
+        private int columns = -1;
+        private long headerLength;
+        private long rows;
+        private long reported;
+        private long reportedBytes;
+
+        private ExportMapper(RowWriter writer, Progress progress, int chunkSize) {
+            this.writer = writer;
+            this.progress = progress;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public Void map(ResultSet result) throws SQLException {
+            try {
+                if (this.columns < 0) {
+                    ResultSetMetaData meta = result.getMetaData();
+                    String[] labels = new String[meta.getColumnCount()];
+                    for (int i = 0; i < labels.length; i++) {
+                        labels[i] = meta.getColumnLabel(i + 1);
+                    }
+                    this.writer.writeHeader(labels);
+                    this.columns = labels.length;
+                    this.headerLength = this.writer.getBytes();
+                }
+                this.writer.writeRow(result, this.columns);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (++this.rows - this.reported == this.chunkSize) {
+                long bytes = this.writer.getBytes();
+                this.progress.add(this.rows - this.reported, bytes - this.reportedBytes);
+                this.reported = this.rows;
+                this.reportedBytes = bytes;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The totals of a transfer, which may be updated by several threads.
+     */
+    private static final class Progress {
+        private final IProgressListener listener;
+        private long rows;
+        private long bytes;
+
+        private Progress(IProgressListener listener) {
+            this.listener = listener;
+        }
+
+        private synchronized void add(long rows, long bytes) {
+            this.rows += rows;
+            this.bytes += bytes;
+            if (this.listener != null && rows > 0) {
+                this.listener.onProgress(this.rows, this.bytes);
+            }
+        }
+
+        private synchronized void finish() {
+            if (this.listener != null) {
+                this.listener.onProgress(this.rows, this.bytes);
+            }
+        }
+    }
+
+    private static final class Part {
+        private final Path file;
+        private final long headerLength;
+        private final long rows;
+
+        private Part(Path file, long headerLength, long rows) {
+            this.file = file;
+            this.headerLength = headerLength;
+            this.rows = rows;
+        }
+    }
+}
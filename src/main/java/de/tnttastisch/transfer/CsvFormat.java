@@ -0,0 +1,177 @@
+package de.tnttastisch.transfer;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Comma separated values in UTF-8 with a header line, quoted as described in RFC 4180.
+ * A null value is written as the unquoted word {@code NULL}, the string "NULL" is always quoted,
+ * which is also how {@code LOAD DATA} on MySQL reads them.
+ */
+final class CsvFormat {
+
+    private static final String NULL = "NULL";
+
+    private CsvFormat() {
+    }
+
+    static final class Writer extends RowWriter {
+        private final StringBuilder field = new StringBuilder();
+
+        Writer(WritableByteChannel channel) {
+            super(channel);
+        }
+
+        @Override
+        void writeHeader(String[] columns) throws IOException {
+            for (int column = 0; column < columns.length; column++) {
+                if (column > 0) putUtf8(",");
+                writeField(columns[column]);
+            }
+            putUtf8("\n");
+        }
+
+        @Override
+        void writeRow(ResultSet result, int columns) throws SQLException, IOException {
+            for (int column = 1; column <= columns; column++) {
+                if (column > 1) putUtf8(",");
+                Object value = normalize(result.getObject(column));
+                if (value == null) {
+                    putUtf8(NULL);
+                } else if (value instanceof Boolean) {
+                    putUtf8((Boolean) value ? "1" : "0");
+                } else if (value instanceof Number) {
+                    putUtf8(value.toString());
+                } else if (value instanceof byte[]) {
+                    putUtf8(Base64.getEncoder().encodeToString((byte[]) value));
+                } else {
+                    writeField(value.toString());
+                }
+            }
+            putUtf8("\n");
+        }
+
+        private void writeField(String value) throws IOException {
+            boolean quote = value.equals(NULL);
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                putUtf8(value);
+                return;
+            }
+            this.field.setLength(0);
+            this.field.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') this.field.append('"');
+                this.field.append(c);
+            }
+            putUtf8(this.field.append('"'));
+        }
+    }
+
+    static final class Reader extends RowReader {
+        private final java.io.Reader reader;
+        private final char[] buffer = new char[16 * 1024];
+        private final StringBuilder field = new StringBuilder();
+        private final List<Object> fields = new ArrayList<>();
+        private int position;
+        private int limit;
+        private long line;
+
+        Reader(ReadableByteChannel channel) {
+            this.reader = Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1);
+        }
+
+        @Override
+        String[] readHeader() throws IOException {
+            if (!readRecord()) return null;
+            String[] columns = new String[this.fields.size()];
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = String.valueOf(this.fields.get(i));
+            }
+            return columns;
+        }
+
+        @Override
+        boolean readRow(Object[] values) throws IOException {
+            if (!readRecord()) return false;
+            if (this.fields.size() != values.length) {
+                throw new IOException("Line " + this.line + " has " + this.fields.size() + " fields, expected " + values.length);
+            }
+            this.fields.toArray(values);
+            return true;
+        }
+
+        /**
+         * Reads the fields of the next record, which may span several lines inside quotes.
+         */
+        private boolean readRecord() throws IOException {
+            this.fields.clear();
+            int c = read();
+            if (c < 0) return false;
+            this.line++;
+            while (true) {
+                this.field.setLength(0);
+                boolean quoted = c == '"';
+                if (quoted) {
+                    while (true) {
+                        c = read();
+                        if (c < 0) throw new IOException("Line " + this.line + " ends inside a quoted field");
+                        if (c == '"') {
+                            c = read();
+                            if (c != '"') break;
+                        }
+                        this.field.append((char) c);
+                    }
+                    if (c >= 0 && c != ',' && c != '\n' && c != '\r') {
+                        throw new IOException("Line " + this.line + " continues after a quoted field");
+                    }
+                } else {
+                    while (c >= 0 && c != ',' && c != '\n' && c != '\r') {
+                        this.field.append((char) c);
+                        c = read();
+                    }
+                }
+                String value = this.field.toString();
+                this.fields.add(!quoted && value.equals(NULL) ? null : value);
+                if (c == ',') {
+                    c = read();
+                    continue;
+                }
+                if (c == '\r') {
+                    c = read();
+                    if (c != '\n' && c >= 0) throw new IOException("Line " + this.line + " contains a carriage return outside of quotes");
+                }
+                return true;
+            }
+        }
+
+        private int read() throws IOException {
+            if (this.position == this.limit) {
+                this.limit = this.reader.read(this.buffer);
+                this.position = 0;
+                if (this.limit <= 0) {
+                    this.limit = 0;
+                    return -1;
+                }
+            }
+            return this.buffer[this.position++];
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.reader.close();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package de.tnttastisch.transfer;
+
+/**
+ * The IProgressListener interface receives the progress of a {@link BulkTransfer}. It is called after every
+ * chunk of rows and once when the transfer finished, from the threads doing the transfer.
+ * @since = 2.1-RELEASE
+ */
+@FunctionalInterface
+public interface IProgressListener {
+
+    /**
+     * Reports the progress of a transfer.
+     * @param rows  The number of rows exported or imported so far.
+     * @param bytes The number of bytes written to or read from the file so far.
+     */
+    void onProgress(long rows, long bytes);
+}
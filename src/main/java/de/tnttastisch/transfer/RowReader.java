@@ -0,0 +1,22 @@
+package de.tnttastisch.transfer;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Decodes rows from a channel, one row at a time.
+ */
+abstract class RowReader implements Closeable {
+
+    /**
+     * Reads the column labels.
+     * @return The column labels, or null if the file is empty.
+     */
+    abstract String[] readHeader() throws IOException;
+
+    /**
+     * Reads the next row into the given array, which has one element per column.
+     * @return Whether a row was read, false at the end of the file.
+     */
+    abstract boolean readRow(Object[] values) throws IOException;
+}
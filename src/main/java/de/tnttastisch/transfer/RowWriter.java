@@ -0,0 +1,136 @@
+package de.tnttastisch.transfer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+/**
+ * Encodes rows into a channel through a fixed buffer, so memory use does not grow with the number of rows.
+ */
+abstract class RowWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long written;
+
+    RowWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Writes the column labels, before the first row.
+     */
+    abstract void writeHeader(String[] columns) throws IOException;
+
+    /**
+     * Writes the row the result set is positioned on.
+     */
+    abstract void writeRow(ResultSet result, int columns) throws SQLException, IOException;
+
+    /**
+     * @return The number of bytes written so far, including the buffered ones.
+     */
+    long getBytes() {
+        return this.written + this.buffer.position();
+    }
+
+    void ensure(int bytes) throws IOException {
+        if (this.buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    void put(byte[] bytes) throws IOException {
+        if (bytes.length > this.buffer.remaining()) {
+            flush();
+            if (bytes.length > this.buffer.capacity()) {
+                write(ByteBuffer.wrap(bytes));
+                return;
+            }
+        }
+        this.buffer.put(bytes);
+    }
+
+    /**
+     * Encodes the characters as UTF-8 directly into the buffer.
+     */
+    void putUtf8(CharSequence text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            ensure(4);
+            if (c < 0x80) {
+                this.buffer.put((byte) c);
+            } else if (c < 0x800) {
+                this.buffer.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int code = Character.toCodePoint(c, text.charAt(++i));
+                this.buffer.put((byte) (0xF0 | code >> 18)).put((byte) (0x80 | code >> 12 & 0x3F))
+                        .put((byte) (0x80 | code >> 6 & 0x3F)).put((byte) (0x80 | code & 0x3F));
+            } else {
+                this.buffer.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    static int utf8Length(CharSequence text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Converts the java.time values returned by newer drivers into their JDBC counterparts.
+     */
+    static Object normalize(Object value) {
+        if (value instanceof LocalDateTime) return Timestamp.valueOf((LocalDateTime) value);
+        if (value instanceof LocalDate) return Date.valueOf((LocalDate) value);
+        if (value instanceof LocalTime) return Time.valueOf((LocalTime) value);
+        return value;
+    }
+
+    void flush() throws IOException {
+        // Called through Buffer, ByteBuffer only overrides flip and clear since Java 9
+        ((Buffer) this.buffer).flip();
+        write(this.buffer);
+        ((Buffer) this.buffer).clear();
+    }
+
+    private void write(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            this.written += this.channel.write(bytes);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            this.channel.close();
+        }
+    }
+}
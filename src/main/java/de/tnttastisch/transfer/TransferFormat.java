@@ -0,0 +1,48 @@
+package de.tnttastisch.transfer;
+
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The file formats of a {@link BulkTransfer}.
+ * @since = 2.1-RELEASE
+ */
+public enum TransferFormat {
+
+    /**
+     * Comma separated values in UTF-8 with a header line of column labels, quoted as described in RFC 4180.
+     * Null values are written as the unquoted word {@code NULL}, booleans as 1 and 0 and binary values in Base64.
+     * Imported values are bound as strings and converted by the database, so binary columns need {@link #BINARY}.
+     */
+    CSV {
+        @Override
+        RowWriter writer(WritableByteChannel channel) {
+            return new CsvFormat.Writer(channel);
+        }
+
+        @Override
+        RowReader reader(ReadableByteChannel channel) {
+            return new CsvFormat.Reader(channel);
+        }
+    },
+
+    /**
+     * A compact binary row format, which keeps integers, floating point numbers, decimals, booleans, dates,
+     * times, timestamps and binary values as their type. Integers take as many bytes as their magnitude needs.
+     */
+    BINARY {
+        @Override
+        RowWriter writer(WritableByteChannel channel) {
+            return new BinaryFormat.Writer(channel);
+        }
+
+        @Override
+        RowReader reader(ReadableByteChannel channel) {
+            return new BinaryFormat.Reader(channel);
+        }
+    };
+
+    abstract RowWriter writer(WritableByteChannel channel);
+
+    abstract RowReader reader(ReadableByteChannel channel);
+}
@@ -0,0 +1,79 @@
+package de.tnttastisch.helpers;
+
+import de.tnttastisch.SQLFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class DatabaseCommandConcurrencyTest {
+
+    private static final int OPERATIONS = 4;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String file;
+    private ConnectionAuthenticator connection;
+    private DatabaseCommand command;
+
+    @Before
+    public void setUp() throws Exception {
+        DatabaseType.setType(DatabaseType.SQLITE);
+        this.file = folder.newFile("concurrency.db").getAbsolutePath();
+        this.connection = new SQLFactory(LoggerFactory.getLogger(DatabaseCommandConcurrencyTest.class)).createDatabaseConnection(OPERATIONS, 1, this.file);
+        this.command = this.connection.getCommand();
+        this.command.update("CREATE TABLE numbers (id INTEGER)").get(10, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.connection.shutdown();
+    }
+
+    @Test
+    public void parallelOperationsUseSeparateConnections() throws Exception {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        int active = 0;
+        // An open write transaction on another connection makes every update wait inside the database,
+        // holding its pooled connection, until the transaction ends
+        try (Connection lock = DriverManager.getConnection("jdbc:sqlite:" + this.file)) {
+            lock.setAutoCommit(false);
+            try (Statement statement = lock.createStatement()) {
+                statement.executeUpdate("INSERT INTO numbers (id) VALUES (0)");
+            }
+            for (int i = 1; i <= OPERATIONS; i++) {
+                futures.add(this.command.update("INSERT INTO numbers (id) VALUES (?)", i));
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+            while (active < OPERATIONS && System.nanoTime() < deadline) {
+                active = Math.max(active, this.connection.getPool().getActiveConnections());
+                Thread.sleep(1);
+            }
+            lock.rollback();
+        }
+        for (CompletableFuture<Void> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(OPERATIONS, active);
+        try (Connection check = DriverManager.getConnection("jdbc:sqlite:" + this.file);
+             Statement statement = check.createStatement();
+             ResultSet result = statement.executeQuery("SELECT COUNT(*) FROM numbers")) {
+            result.next();
+            assertEquals(OPERATIONS, result.getInt(1));
+        }
+    }
+}
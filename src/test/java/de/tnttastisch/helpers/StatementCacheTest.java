@@ -0,0 +1,50 @@
+package de.tnttastisch.helpers;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class StatementCacheTest {
+
+    private static final String QUERY = "SELECT 1";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        this.connection = DriverManager.getConnection("jdbc:sqlite:" + folder.newFile("cache.db").getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.connection.close();
+    }
+
+    @Test
+    public void releasedStatementIsReusedWithTheDefaultFetchSize() throws Exception {
+        StatementCache cache = new StatementCache(4);
+        PreparedStatement statement = cache.prepare(this.connection, QUERY);
+        statement.setFetchSize(500);
+        cache.release(QUERY, statement);
+
+        PreparedStatement reused = cache.prepare(this.connection, QUERY);
+
+        assertSame(statement, reused);
+        assertEquals(0, reused.getFetchSize());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        cache.release(QUERY, reused);
+    }
+}
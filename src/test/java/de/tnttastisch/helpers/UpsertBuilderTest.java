@@ -0,0 +1,85 @@
+package de.tnttastisch.helpers;
+
+import de.tnttastisch.SQLFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class UpsertBuilderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ConnectionAuthenticator connection;
+    private DatabaseCommand command;
+
+    @Before
+    public void setUp() throws Exception {
+        SQLFactory factory = new SQLFactory(LoggerFactory.getLogger(UpsertBuilderTest.class), DatabaseType.SQLITE);
+        this.connection = factory.createDatabaseConnection(2, 1, folder.newFile("upsert.db").getAbsolutePath());
+        this.command = this.connection.getCommand();
+        this.command.setDatabaseType(DatabaseType.SQLITE);
+        this.command.update("CREATE TABLE scores (id INTEGER PRIMARY KEY, points INT)").get(10, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.connection.shutdown();
+    }
+
+    @Test
+    public void sqliteStatementUpdatesFromExcluded() {
+        UpsertBuilder upsert = this.command.upsert("scores").columns("id", "points").keys("id");
+
+        assertEquals("INSERT INTO scores (id, points) VALUES (?, ?), (?, ?) ON CONFLICT (id) DO UPDATE SET points = excluded.points",
+                upsert.statement(2));
+        assertEquals("INSERT INTO scores (id, points) VALUES (?, ?) ON CONFLICT (id) DO NOTHING",
+                upsert.updateColumns().statement(1));
+    }
+
+    @Test
+    public void mysqlStatementUsesValuesOrRowAlias() {
+        this.command.setDatabaseType(DatabaseType.MYSQL);
+        UpsertBuilder upsert = this.command.upsert("scores").columns("id", "points").keys("id");
+
+        assertEquals("INSERT INTO scores (id, points) VALUES (?, ?) ON DUPLICATE KEY UPDATE points = VALUES(points)",
+                upsert.statement(1));
+        assertEquals("INSERT INTO scores (id, points) VALUES (?, ?) AS excluded ON DUPLICATE KEY UPDATE points = excluded.points",
+                upsert.rowAlias(true).statement(1));
+    }
+
+    @Test
+    public void rowsAreSplitIntoStatementsWithinTheParameterLimit() throws Exception {
+        this.command.update("INSERT INTO scores (id, points) VALUES (1, 0), (2, 0)").get(10, TimeUnit.SECONDS);
+        // Two rows per statement at most: 7 rows are sent as 2 + 2 + 2 + 1
+        UpsertBuilder upsert = this.command.upsert("scores").columns("id", "points").keys("id").maxParameters(5);
+        List<Object[]> rows = new ArrayList<>();
+        for (int id = 1; id <= 7; id++) {
+            rows.add(new Object[]{id, id * 10});
+        }
+
+        assertEquals(Long.valueOf(7), upsert.execute(rows).get(10, TimeUnit.SECONDS));
+        List<Row> result = this.command.queryRows("SELECT points FROM scores ORDER BY id").get(10, TimeUnit.SECONDS);
+        List<Object> points = new ArrayList<>();
+        for (Row row : result) {
+            points.add(((Number) row.getObject("points")).intValue());
+        }
+        assertEquals(Arrays.<Object>asList(10, 20, 30, 40, 50, 60, 70), points);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void tableWiderThanTheParameterLimitIsRejected() {
+        this.command.upsert("scores").columns("id", "points").keys("id").maxParameters(1)
+                .execute(Arrays.<Object[]>asList(new Object[]{1, 10}));
+    }
+}
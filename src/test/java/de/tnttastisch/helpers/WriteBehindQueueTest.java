@@ -0,0 +1,60 @@
+package de.tnttastisch.helpers;
+
+import de.tnttastisch.SQLFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class WriteBehindQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ConnectionAuthenticator connection;
+    private DatabaseCommand command;
+
+    @Before
+    public void setUp() throws Exception {
+        SQLFactory factory = new SQLFactory(LoggerFactory.getLogger(WriteBehindQueueTest.class), DatabaseType.SQLITE);
+        this.connection = factory.createDatabaseConnection(2, 1, folder.newFile("write-behind.db").getAbsolutePath());
+        this.command = this.connection.getCommand();
+        this.command.update("CREATE TABLE events (id INTEGER PRIMARY KEY)").get(10, TimeUnit.SECONDS);
+        this.command.update("CREATE TABLE audits (id INTEGER PRIMARY KEY)").get(10, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.connection.shutdown();
+    }
+
+    @Test
+    public void failingBatchDoesNotStopThePeriodicFlush() throws Exception {
+        WriteBehindQueue queue = this.connection.enableWriteBehind(100, 20, 100);
+        // Missing arguments fail while binding, before the batch reaches the database
+        queue.enqueue("INSERT INTO audits (id) VALUES (?)", (Object[]) null);
+        queue.enqueue("INSERT INTO events (id) VALUES (?)", 1);
+        awaitFlushed(queue);
+        queue.enqueue("INSERT INTO events (id) VALUES (?)", 2);
+        awaitFlushed(queue);
+
+        assertEquals(2, this.command.queryRows("SELECT id FROM events").get(10, TimeUnit.SECONDS).size());
+        assertEquals(0, this.command.queryRows("SELECT id FROM audits").get(10, TimeUnit.SECONDS).size());
+    }
+
+    private static void awaitFlushed(WriteBehindQueue queue) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (queue.getPendingCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, queue.getPendingCount());
+        // The pending count drops before the batches are written, a following flush waits for the running one
+        queue.flush();
+    }
+}
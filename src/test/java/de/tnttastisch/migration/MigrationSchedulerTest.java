@@ -0,0 +1,79 @@
+package de.tnttastisch.migration;
+
+import de.tnttastisch.SQLFactory;
+import de.tnttastisch.helpers.ConnectionAuthenticator;
+import de.tnttastisch.helpers.DatabaseType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MigrationSchedulerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ConnectionAuthenticator connection;
+
+    @Before
+    public void setUp() throws Exception {
+        SQLFactory factory = new SQLFactory(LoggerFactory.getLogger(MigrationSchedulerTest.class), DatabaseType.SQLITE);
+        this.connection = factory.createDatabaseConnection(2, 1, folder.newFile("scheduler.db").getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.connection.shutdown();
+    }
+
+    @Test
+    public void failingMigrationIsCounted() throws Exception {
+        Migration failing = new Migration("accounts", "id INT", "id INT, name TEXT") {
+            @Override
+            public void migrate(Connection connection) {
+                throw new IllegalStateException("The migration failed");
+            }
+        };
+        MigrationScheduler scheduler = new MigrationScheduler(LoggerFactory.getLogger(MigrationSchedulerTest.class), this.connection.getPool(), 4);
+
+        assertEquals(Integer.valueOf(1), scheduler.run(Collections.singletonList(failing)).get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void workersAreNamedAndCappedAtThePoolSize() throws Exception {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        Migration[] migrations = new Migration[6];
+        for (int i = 0; i < migrations.length; i++) {
+            migrations[i] = new Migration("table" + i, "id INT", "id INT, name TEXT") {
+                @Override
+                public void migrate(Connection connection) {
+                    threads.add(Thread.currentThread().getName());
+                    try {
+                        Thread.sleep(50);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+        }
+        MigrationScheduler scheduler = new MigrationScheduler(LoggerFactory.getLogger(MigrationSchedulerTest.class), this.connection.getPool(), 16);
+
+        assertEquals(Integer.valueOf(0), scheduler.run(Arrays.asList(migrations)).get(10, TimeUnit.SECONDS));
+        assertTrue(threads.size() <= 2);
+        for (String thread : threads) {
+            assertTrue(thread, thread.matches("SQLAPI-Migration-\\d+"));
+        }
+    }
+}
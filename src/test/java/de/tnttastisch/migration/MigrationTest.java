@@ -0,0 +1,148 @@
+package de.tnttastisch.migration;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MigrationTest {
+
+    private static final String OLD_TABLE = "id INTEGER PRIMARY KEY, name TEXT";
+    private static final String NEW_TABLE = "id INTEGER PRIMARY KEY, name TEXT, amount INT DEFAULT 0";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        this.connection = DriverManager.getConnection("jdbc:sqlite:" + folder.newFile("migration.db").getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.connection.close();
+    }
+
+    @Test
+    public void resumedCopyContinuesAfterTheHighestKey() throws Exception {
+        // An interrupted copy left the legacy table, unordered, and the rows with the lowest keys in the new table
+        execute("CREATE TABLE legacy_accounts (" + OLD_TABLE + ")");
+        for (int id : new int[]{5, 3, 1, 4, 2}) {
+            execute("INSERT INTO legacy_accounts VALUES (" + id + ", 'name" + id + "')");
+        }
+        execute("CREATE TABLE accounts (" + NEW_TABLE + ")");
+        execute("INSERT INTO accounts (id, name) VALUES (1, 'name1'), (2, 'name2')");
+        Migration.createStateTable(this.connection);
+        execute("INSERT INTO " + Migration.STATE_TABLE + " VALUES ('accounts', 'COPY')");
+
+        Migration migration = new Migration("accounts", OLD_TABLE, NEW_TABLE);
+        migration.setChunkSize(2);
+        migration.migrate(this.connection);
+
+        assertEquals(Arrays.asList(1, 2, 3, 4, 5), ids("accounts"));
+        assertFalse(exists("legacy_accounts"));
+        assertEquals(migration.getChecksum(), SchemaLedger.read(this.connection, "accounts"));
+    }
+
+    @Test
+    public void resumedCopyWithoutKeyStartsOver() throws Exception {
+        String oldTable = "id INT, name TEXT";
+        String newTable = "id INT, name TEXT, amount INT DEFAULT 0";
+        execute("CREATE TABLE legacy_accounts (" + oldTable + ")");
+        execute("INSERT INTO legacy_accounts VALUES (3, 'c'), (1, 'a'), (2, 'b')");
+        execute("CREATE TABLE accounts (" + newTable + ")");
+        execute("INSERT INTO accounts (id, name) VALUES (1, 'a')");
+        Migration.createStateTable(this.connection);
+        execute("INSERT INTO " + Migration.STATE_TABLE + " VALUES ('accounts', 'COPY')");
+
+        new Migration("accounts", oldTable, newTable).migrate(this.connection);
+
+        assertEquals(Arrays.asList(1, 2, 3), ids("accounts"));
+    }
+
+    @Test
+    public void copyPhaseWithoutLegacyTableOnlyRecordsTheLedger() throws Exception {
+        // The legacy table was dropped, but the run stopped before the ledger was written
+        execute("CREATE TABLE accounts (" + NEW_TABLE + ")");
+        execute("INSERT INTO accounts (id, name) VALUES (1, 'a'), (2, 'b')");
+        Migration.createStateTable(this.connection);
+        execute("INSERT INTO " + Migration.STATE_TABLE + " VALUES ('accounts', 'COPY')");
+
+        Migration migration = new Migration("accounts", OLD_TABLE, NEW_TABLE);
+        migration.migrate(this.connection);
+
+        assertEquals(Arrays.asList(1, 2), ids("accounts"));
+        assertEquals(migration.getChecksum(), SchemaLedger.read(this.connection, "accounts"));
+    }
+
+    @Test
+    public void copyMigrationKeepsAllRows() throws Exception {
+        execute("CREATE TABLE accounts (" + OLD_TABLE + ")");
+        execute("INSERT INTO accounts VALUES (2, 'b'), (1, 'a')");
+
+        Migration migration = new Migration("accounts", OLD_TABLE, NEW_TABLE);
+        migration.setInPlace(false);
+        migration.migrate(this.connection);
+
+        assertEquals(Arrays.asList(1, 2), ids("accounts"));
+        assertFalse(exists("legacy_accounts"));
+    }
+
+    @Test
+    public void appendedColumnIsAddedInPlace() throws Exception {
+        execute("CREATE TABLE accounts (" + OLD_TABLE + ")");
+        execute("INSERT INTO accounts VALUES (1, 'a')");
+
+        Migration migration = new Migration("accounts", OLD_TABLE, NEW_TABLE);
+        migration.migrate(this.connection);
+
+        assertFalse(exists("legacy_accounts"));
+        assertEquals(Arrays.asList(1), ids("accounts"));
+        assertEquals(migration.getChecksum(), SchemaLedger.read(this.connection, "accounts"));
+        try (Statement statement = this.connection.createStatement();
+             ResultSet set = statement.executeQuery("SELECT amount FROM accounts")) {
+            assertTrue(set.next());
+            assertEquals(0, set.getInt(1));
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement statement = this.connection.createStatement()) {
+            statement.executeUpdate(sql);
+        }
+    }
+
+    private List<Integer> ids(String table) throws SQLException {
+        List<Integer> ids = new ArrayList<>();
+        try (Statement statement = this.connection.createStatement();
+             ResultSet set = statement.executeQuery("SELECT id FROM " + table + " ORDER BY id")) {
+            while (set.next()) {
+                ids.add(set.getInt(1));
+            }
+        }
+        return ids;
+    }
+
+    private boolean exists(String table) throws SQLException {
+        try (Statement statement = this.connection.createStatement();
+             ResultSet set = statement.executeQuery("SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = '" + table + "'")) {
+            return set.next() && set.getInt(1) > 0;
+        }
+    }
+}
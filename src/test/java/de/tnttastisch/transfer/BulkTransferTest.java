@@ -0,0 +1,85 @@
+package de.tnttastisch.transfer;
+
+import de.tnttastisch.SQLFactory;
+import de.tnttastisch.helpers.ConnectionAuthenticator;
+import de.tnttastisch.helpers.DatabaseCommand;
+import de.tnttastisch.helpers.DatabaseType;
+import de.tnttastisch.helpers.Row;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class BulkTransferTest {
+
+    private static final String DEFINITION = "(id INTEGER PRIMARY KEY, name TEXT, amount REAL)";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ConnectionAuthenticator connection;
+    private DatabaseCommand command;
+
+    @Before
+    public void setUp() throws Exception {
+        SQLFactory factory = new SQLFactory(LoggerFactory.getLogger(BulkTransferTest.class), DatabaseType.SQLITE);
+        this.connection = factory.createDatabaseConnection(4, 1, folder.newFile("transfer.db").getAbsolutePath());
+        this.command = this.connection.getCommand();
+        this.command.update("CREATE TABLE source " + DEFINITION).get(10, TimeUnit.SECONDS);
+        this.command.update("CREATE TABLE target " + DEFINITION).get(10, TimeUnit.SECONDS);
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{1, "plain", 1.5});
+        rows.add(new Object[]{2, "comma, \"quotes\"", -2.25});
+        rows.add(new Object[]{3, "line\nbreak", 0.0});
+        rows.add(new Object[]{4, null, null});
+        rows.add(new Object[]{5, "ünicöde ✓", 1e10});
+        for (int id = 6; id <= 50; id++) {
+            rows.add(new Object[]{id, "row" + id, id / 4.0});
+        }
+        this.command.batch("INSERT INTO source (id, name, amount) VALUES (?, ?, ?)", rows).get(10, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.connection.shutdown();
+    }
+
+    @Test
+    public void csvRoundTripKeepsEveryValue() throws Exception {
+        roundTrip(TransferFormat.CSV);
+    }
+
+    @Test
+    public void binaryRoundTripKeepsEveryValue() throws Exception {
+        roundTrip(TransferFormat.BINARY);
+    }
+
+    private void roundTrip(TransferFormat format) throws Exception {
+        BulkTransfer transfer = new BulkTransfer(LoggerFactory.getLogger(BulkTransferTest.class), this.command, 3);
+        transfer.setChunkSize(7);
+        Path file = folder.getRoot().toPath().resolve("source." + format.name().toLowerCase());
+
+        assertEquals(Long.valueOf(50), transfer.exportTable("source", "id", file, format).get(10, TimeUnit.SECONDS));
+        assertEquals(Long.valueOf(50), transfer.importFile(file, format, "target").get(10, TimeUnit.SECONDS));
+        assertEquals(rows("source"), rows("target"));
+    }
+
+    private List<List<Object>> rows(String table) throws Exception {
+        List<List<Object>> rows = new ArrayList<>();
+        for (Row row : this.command.queryRows("SELECT id, name, amount FROM " + table + " ORDER BY id").get(10, TimeUnit.SECONDS)) {
+            Object amount = row.getObject(3);
+            rows.add(Arrays.asList(((Number) row.getObject(1)).longValue(), row.getObject(2), amount == null ? null : ((Number) amount).doubleValue()));
+        }
+        return rows;
+    }
+}